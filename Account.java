@@ -0,0 +1,173 @@
+import java.util.*;
+// Account Class (one bank account, points back to its owner instead of copying customer details)
+class Account {
+    // How many recent transactions each account type keeps in memory
+    static final HashMap<String, Integer> HISTORY_SIZE = new HashMap<>(Map.of(
+            "Savings", 10,
+            "Current", 25,
+            "NRI", 10));
+    static final int DEFAULT_HISTORY_SIZE = 10;
+
+    final int accountNo;
+    final User owner;
+    final String accountType;
+    volatile long balance; // paise, written only under the account's lock in Bank.accountLocks
+    String mpin;
+    boolean hasCreditCard;
+    boolean hasDebitCard;
+    boolean hasLoan;
+    // False while history and schemes still live only in the database (lazy mode). Set once the load
+    // is complete, so a reader that sees true sees the whole history.
+    volatile boolean hydrated;
+    private boolean hydrating; // guarded by HISTORY_LOCKS, lets the loading thread's own adds through
+    volatile long version; // accounts.version as last read or written by this instance
+    volatile int versionConflicts; // optimistic writes that lost to another writer, counted under the lock
+    final TransactionRing transactionHistory; // guarded by HISTORY_LOCKS, like schemes
+    final List<String> schemes;
+    // Guards history and schemes: adds (from posting threads, shard workers and hydration) and the copies
+    // readers get, and serializes hydration with adds that arrive while it runs. ReentrantLocks rather
+    // than the account's monitor, so a virtual thread waiting on the history query does not pin its carrier.
+    private static final AccountLocks HISTORY_LOCKS = new AccountLocks(1024);
+
+    Account(int accountNo, User owner, String accountType, long balance, String mpin) {
+        this.accountNo = accountNo;
+        this.owner = owner;
+        this.accountType = accountType.intern(); // only a handful of distinct types, share one string each
+        this.balance = balance;
+        this.mpin = mpin;
+        this.transactionHistory = new TransactionRing(HISTORY_SIZE.getOrDefault(this.accountType, DEFAULT_HISTORY_SIZE));
+        this.schemes = new ArrayList<>(0);
+        this.hydrated = true;
+    }
+
+    public int getAccountNo() { return accountNo; }
+    public User getOwner() { return owner; }
+    public int getUserId() { return owner.getUserId(); }
+    public String getAccountType() { return accountType; }
+    public long getBalance() { return balance; }
+    public String getMpin() { return mpin; }
+    public List<Transaction> getTransactionHistory() {
+        ensureHydrated();
+        HISTORY_LOCKS.lock(accountNo);
+        try {
+            return transactionHistory.toList();
+        } finally {
+            HISTORY_LOCKS.unlock(accountNo);
+        }
+    }
+    public boolean hasCreditCard() { return hasCreditCard; }
+    public boolean hasDebitCard() { return hasDebitCard; }
+    public boolean hasLoan() { return hasLoan; }
+    public List<String> getSchemes() {
+        ensureHydrated();
+        HISTORY_LOCKS.lock(accountNo);
+        try {
+            return new ArrayList<>(schemes);
+        } finally {
+            HISTORY_LOCKS.unlock(accountNo);
+        }
+    }
+    public boolean isHydrated() { return hydrated; }
+    public long getVersion() { return version; }
+    public int getVersionConflicts() { return versionConflicts; }
+    public int getHistoryCapacity() { return transactionHistory.capacity(); }
+
+    public void setMpin(String mpin) { this.mpin = mpin; }
+    public void setBalance(long balance) { this.balance = balance; }
+    public void setHasCreditCard(boolean hasCreditCard) { this.hasCreditCard = hasCreditCard; }
+    public void setHasDebitCard(boolean hasDebitCard) { this.hasDebitCard = hasDebitCard; }
+    public void setHasLoan(boolean hasLoan) { this.hasLoan = hasLoan; }
+    public void setHydrated(boolean hydrated) { this.hydrated = hydrated; }
+    public void setVersion(long version) { this.version = version; }
+    public void recordVersionConflict() { versionConflicts++; }
+
+    // Fetch history and schemes from the database the first time they are needed. Postings call this
+    // before they write (Bank.postToAccount and friends): a row committed while another thread's load
+    // is running could otherwise be read by that load and added again by the posting.
+    void ensureHydrated() {
+        if (hydrated) {
+            return;
+        }
+        HISTORY_LOCKS.lock(accountNo);
+        try {
+            if (hydrated) {
+                return;
+            }
+            hydrating = true;
+            try {
+                if (Bank.hydrateAccount(this)) {
+                    hydrated = true;
+                } else {
+                    transactionHistory.clear();
+                    schemes.clear();
+                }
+            } finally {
+                hydrating = false;
+            }
+        } finally {
+            HISTORY_LOCKS.unlock(accountNo);
+        }
+    }
+
+    // Take the history read into a scratch account by a bulk load, unless this one got hydrated meanwhile
+    void hydrateFrom(Account loaded) {
+        HISTORY_LOCKS.lock(accountNo);
+        try {
+            if (hydrated) {
+                return;
+            }
+            // loaded is a scratch account no other thread has seen
+            for (Transaction transaction : loaded.transactionHistory) {
+                transactionHistory.add(transaction);
+            }
+            schemes.addAll(loaded.schemes);
+            hydrated = true;
+        } finally {
+            HISTORY_LOCKS.unlock(accountNo);
+        }
+    }
+
+    // Transaction methods
+    public void addTransaction(Transaction transaction) {
+        HISTORY_LOCKS.lock(accountNo);
+        try {
+            // Not hydrated yet: the row is already in the database and is read on first access
+            if (hydrated || hydrating) {
+                transactionHistory.add(transaction);
+            }
+        } finally {
+            HISTORY_LOCKS.unlock(accountNo);
+        }
+    }
+
+    public void addScheme(String scheme) {
+        HISTORY_LOCKS.lock(accountNo);
+        try {
+            if (hydrated || hydrating) {
+                schemes.add(scheme);
+            }
+        } finally {
+            HISTORY_LOCKS.unlock(accountNo);
+        }
+    }
+
+    // Method to get account details for file output
+    public String getAccountDetailsForFile() {
+        StringBuilder details = new StringBuilder();
+        details.append("User ID: ").append(getUserId()).append("\n");
+        details.append("Account No: ").append(accountNo).append("\n");
+        details.append("Account Type: ").append(accountType).append("\n");
+        details.append("Balance: ₹").append(Money.format(balance)).append("\n");
+        details.append("Debit Card: ").append(hasDebitCard ? "Yes" : "No").append("\n");
+        details.append("Credit Card: ").append(hasCreditCard ? "Yes" : "No").append("\n");
+        details.append("Loan: ").append(hasLoan ? "Yes" : "No").append("\n");
+        details.append("Schemes: ").append(String.join(", ", getSchemes())).append("\n");
+        details.append("Transactions:\n");
+        for (Transaction transaction : getTransactionHistory()) {
+            details.append("- ").append(transaction).append("\n");
+        }
+        details.append("---------------------\n");
+
+        return details.toString();
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+// Striped locks for accounts: each account number maps to one of a fixed set of locks
+class AccountLocks {
+    private final ReentrantLock[] stripes;
+    private final AtomicLongArray contention; // times a thread found the stripe already held
+    private final int mask;
+
+    // stripeCount is rounded up to a power of two
+    AccountLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        contention = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    public int stripeOf(int accountNo) {
+        int h = accountNo * 0x9E3779B9; // spread consecutive account numbers across stripes
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void lock(int accountNo) {
+        acquire(stripeOf(accountNo));
+    }
+
+    public void unlock(int accountNo) {
+        stripes[stripeOf(accountNo)].unlock();
+    }
+
+    // Lock two accounts for a transfer. Stripes are always taken lowest index first, so two
+    // transfers can never wait on each other in a cycle; accounts sharing a stripe take it once.
+    public void lockPair(int accountNoA, int accountNoB) {
+        int a = stripeOf(accountNoA);
+        int b = stripeOf(accountNoB);
+        acquire(Math.min(a, b));
+        if (a != b) {
+            acquire(Math.max(a, b));
+        }
+    }
+
+    public void unlockPair(int accountNoA, int accountNoB) {
+        int a = stripeOf(accountNoA);
+        int b = stripeOf(accountNoB);
+        if (a != b) {
+            stripes[Math.max(a, b)].unlock();
+        }
+        stripes[Math.min(a, b)].unlock();
+    }
+
+    private void acquire(int stripe) {
+        ReentrantLock lock = stripes[stripe];
+        if (!lock.tryLock()) {
+            contention.incrementAndGet(stripe);
+            lock.lock();
+        }
+    }
+
+    public int stripeCount() { return stripes.length; }
+    public long contention(int stripe) { return contention.get(stripe); }
+
+    public long totalContention() {
+        long total = 0;
+        for (int i = 0; i < contention.length(); i++) {
+            total += contention.get(i);
+        }
+        return total;
+    }
+
+    // Stripes that saw contention, busiest first
+    public String contentionReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Lock contention: ").append(totalContention()).append(" waits across ")
+                .append(stripes.length).append(" stripes");
+        Integer[] order = new Integer[stripes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        java.util.Arrays.sort(order, (x, y) -> Long.compare(contention.get(y), contention.get(x)));
+        for (int i = 0; i < order.length && i < 5 && contention.get(order[i]) > 0; i++) {
+            sb.append("\n  stripe ").append(order[i]).append(": ").append(contention.get(order[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,349 @@
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+// Single-writer execution mode: accounts are split by accountNo into shards and each shard is owned
+// by one worker thread. Only that thread changes its accounts' balances, so postings need no locks.
+// Workers drain their queue in batches and persist each batch in one storage transaction
+// (BankStorage.applyBatch).
+//
+// Transfers between shards are done in two steps: the sender's shard debits and commits, then hands a
+// credit command to the receiver's shard. If the credit cannot be applied, a reversal is handed back
+// to the sender's shard. The debit's transaction also records the credit still owed in pending_credits
+// and the credit (or the reversal) removes it in its own, so a crash between the two commits leaves
+// the money on that row, where BankStorage.settlePendingCredits finishes it at the next start.
+class AccountShards {
+    private final Shard[] shards;
+    private final int batchSize;
+    private final Semaphore admissions; // bounds commands waiting from callers; internal handoffs never block
+    // Commands queued or being processed, handoffs included; workers only stop once it is back to zero
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean running;
+
+    AccountShards(int shardCount, int queueCapacity, int batchSize) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+        this.batchSize = batchSize;
+        this.admissions = new Semaphore(queueCapacity);
+    }
+
+    public void start() {
+        running = true;
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    // Stop accepting work and wait until every command, including credits and reversals handed between
+    // shards, has been processed
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.thread.join();
+        }
+    }
+
+    public int shardOf(int accountNo) {
+        return Math.floorMod(accountNo, shards.length);
+    }
+
+    // Queue a withdraw/deposit; the future completes once the posting is committed
+    public CompletableFuture<Transaction> post(Account account, BankingOperations operation, long amount)
+            throws InterruptedException {
+        CompletableFuture<Transaction> result = new CompletableFuture<>();
+        submit(shardOf(account.getAccountNo()), new Posting(account, operation, amount, result));
+        return result;
+    }
+
+    // Queue a transfer; the future completes with the sender's transaction once the credit is committed
+    public CompletableFuture<Transaction> transfer(Account from, Account to, long amount) throws InterruptedException {
+        CompletableFuture<Transaction> result = new CompletableFuture<>();
+        submit(shardOf(from.getAccountNo()), new TransferDebit(from, to, amount, result));
+        return result;
+    }
+
+    private void submit(int shard, Command command) throws InterruptedException {
+        // Counted before running is checked, so shutdown() either turns this away or waits for it
+        inFlight.incrementAndGet();
+        if (!running) {
+            inFlight.decrementAndGet();
+            throw new IllegalStateException("Shards are not running.");
+        }
+        try {
+            admissions.acquire();
+        } catch (InterruptedException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        command.external = true;
+        shards[shard].queue.add(command);
+    }
+
+    private void handOff(int shard, Command command) {
+        inFlight.incrementAndGet();
+        shards[shard].queue.add(command);
+    }
+
+    // Work collected from one drained batch, persisted in a single database transaction
+    private static final class Batch {
+        final LinkedHashMap<Account, Long> balancesBefore = new LinkedHashMap<>();
+        final List<Integer> rowAccounts = new ArrayList<>();
+        final List<Transaction> rows = new ArrayList<>();
+        final List<Runnable> onCommit = new ArrayList<>();
+        final List<Consumer<Exception>> onFailure = new ArrayList<>();
+        final List<BankStorage.PendingCredit> opened = new ArrayList<>();
+        final List<BankStorage.PendingCredit> settled = new ArrayList<>();
+
+        void touch(Account account) {
+            balancesBefore.putIfAbsent(account, account.getBalance());
+        }
+
+        void record(Account account, Transaction transaction) {
+            rowAccounts.add(account.getAccountNo());
+            rows.add(transaction);
+            onCommit.add(() -> account.addTransaction(transaction));
+        }
+    }
+
+    private abstract static class Command {
+        boolean external;
+
+        abstract void apply(Batch batch);
+    }
+
+    private static final class Posting extends Command {
+        final Account account;
+        final BankingOperations operation;
+        final long amount;
+        final CompletableFuture<Transaction> result;
+
+        Posting(Account account, BankingOperations operation, long amount, CompletableFuture<Transaction> result) {
+            this.account = account;
+            this.operation = operation;
+            this.amount = amount;
+            this.result = result;
+        }
+
+        @Override
+        void apply(Batch batch) {
+            try {
+                batch.touch(account);
+                operation.performTransaction(account, amount);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            Transaction transaction = new Transaction(System.currentTimeMillis(), operation.getTransactionType(),
+                    amount, operation.getCounterparty(), account.getBalance());
+            batch.record(account, transaction);
+            batch.onCommit.add(() -> result.complete(transaction));
+            batch.onFailure.add(result::completeExceptionally);
+        }
+    }
+
+    private final class TransferDebit extends Command {
+        final Account from;
+        final Account to;
+        final long amount;
+        final CompletableFuture<Transaction> result;
+
+        TransferDebit(Account from, Account to, long amount, CompletableFuture<Transaction> result) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.result = result;
+        }
+
+        @Override
+        void apply(Batch batch) {
+            boolean sameShard = shardOf(from.getAccountNo()) == shardOf(to.getAccountNo());
+            boolean debited = false;
+            try {
+                batch.touch(from);
+                new WithdrawOperation().performTransaction(from, amount);
+                debited = true;
+                if (sameShard) {
+                    batch.touch(to);
+                    new DepositOperation().performTransaction(to, amount);
+                }
+            } catch (Exception e) {
+                if (debited) {
+                    from.setBalance(from.getBalance() + amount); // credit failed after the debit
+                }
+                result.completeExceptionally(e);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            Transaction debit = new Transaction(now, Transaction.Type.TRANSFER_OUT, amount,
+                    to.getAccountNo(), from.getBalance());
+            batch.record(from, debit);
+            batch.onFailure.add(result::completeExceptionally);
+            if (sameShard) {
+                batch.record(to, new Transaction(now, Transaction.Type.TRANSFER_IN, amount,
+                        from.getAccountNo(), to.getBalance()));
+                batch.onCommit.add(() -> result.complete(debit));
+            } else {
+                BankStorage.PendingCredit pending = new BankStorage.PendingCredit(from.getAccountNo(),
+                        to.getAccountNo(), amount, now);
+                batch.opened.add(pending);
+                batch.onCommit.add(() -> handOff(shardOf(to.getAccountNo()),
+                        new TransferCredit(from, to, amount, debit, pending, result)));
+            }
+        }
+    }
+
+    private final class TransferCredit extends Command {
+        final Account from;
+        final Account to;
+        final long amount;
+        final Transaction debit;
+        final BankStorage.PendingCredit pending;
+        final CompletableFuture<Transaction> result;
+
+        TransferCredit(Account from, Account to, long amount, Transaction debit, BankStorage.PendingCredit pending,
+                       CompletableFuture<Transaction> result) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.debit = debit;
+            this.pending = pending;
+            this.result = result;
+        }
+
+        @Override
+        void apply(Batch batch) {
+            try {
+                batch.touch(to);
+                new DepositOperation().performTransaction(to, amount);
+            } catch (Exception e) {
+                reverse(e);
+                return;
+            }
+            batch.record(to, new Transaction(System.currentTimeMillis(), Transaction.Type.TRANSFER_IN, amount,
+                    from.getAccountNo(), to.getBalance()));
+            batch.settled.add(pending);
+            batch.onCommit.add(() -> result.complete(debit));
+            batch.onFailure.add(this::reverse);
+        }
+
+        private void reverse(Exception cause) {
+            handOff(shardOf(from.getAccountNo()), new TransferReversal(from, to, amount, cause, pending, result));
+        }
+    }
+
+    private final class TransferReversal extends Command {
+        final Account from;
+        final Account to;
+        final long amount;
+        final Exception cause;
+        final BankStorage.PendingCredit pending;
+        final CompletableFuture<Transaction> result;
+
+        TransferReversal(Account from, Account to, long amount, Exception cause, BankStorage.PendingCredit pending,
+                         CompletableFuture<Transaction> result) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.cause = cause;
+            this.pending = pending;
+            this.result = result;
+        }
+
+        @Override
+        void apply(Batch batch) {
+            batch.touch(from);
+            from.setBalance(from.getBalance() + amount);
+            batch.record(from, new Transaction(System.currentTimeMillis(), Transaction.Type.REVERSAL, amount,
+                    to.getAccountNo(), from.getBalance()));
+            batch.settled.add(pending);
+            batch.onCommit.add(() -> result.completeExceptionally(cause));
+            // The debit is already committed, keep retrying until the money is back
+            batch.onFailure.add(e -> handOff(shardOf(from.getAccountNo()), this));
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final LinkedBlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+        final Thread thread;
+
+        Shard(int index) {
+            thread = new Thread(this, "account-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Command> commands = new ArrayList<>(batchSize);
+            while (running || inFlight.get() > 0) {
+                Command first;
+                try {
+                    first = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (first == null) {
+                    continue;
+                }
+                commands.clear();
+                commands.add(first);
+                queue.drainTo(commands, batchSize - 1);
+                process(commands);
+            }
+        }
+
+        private void process(List<Command> commands) {
+            Batch batch = new Batch();
+            for (Command command : commands) {
+                command.apply(batch);
+            }
+            try {
+                if (!batch.rows.isEmpty()) {
+                    persist(batch);
+                }
+                for (Runnable action : batch.onCommit) {
+                    action.run();
+                }
+            } catch (SQLException e) {
+                for (Map.Entry<Account, Long> entry : batch.balancesBefore.entrySet()) {
+                    entry.getKey().setBalance(entry.getValue());
+                }
+                for (Consumer<Exception> action : batch.onFailure) {
+                    action.accept(e);
+                }
+                pauseAfterFailure();
+            } finally {
+                // After the onCommit/onFailure actions, so any handoff they made is already counted
+                for (Command command : commands) {
+                    if (command.external) {
+                        command.external = false;
+                        admissions.release();
+                    }
+                    inFlight.decrementAndGet();
+                }
+            }
+        }
+
+        // Final balance of every touched account plus all history rows, in one transaction
+        private void persist(Batch batch) throws SQLException {
+            Bank.storage.applyBatch(batch.balancesBefore.keySet(), batch.rowAccounts, batch.rows, batch.opened,
+                    batch.settled);
+            // Unconditional here, the worker is the only writer of these balances in this process
+            for (Account account : batch.balancesBefore.keySet()) {
+                account.setVersion(account.getVersion() + 1);
+            }
+        }
+
+        // Give the database a moment before the next batch instead of spinning on a dead connection
+        private void pauseAfterFailure() {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
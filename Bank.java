@@ -1,96 +1,394 @@
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.Period;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.io.*;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
-// Node for Binary Search Tree to store names for efficient searching
-class NameBSTNode {
-    String name;
-    int userId;
-    NameBSTNode left, right;
+// Sorted name index backed by a red-black tree (TreeMap), so it stays balanced whatever order names arrive in.
+// Synchronized, sessions of the network front end create and search users concurrently
+class NameIndex {
+    private final TreeMap<String, List<Integer>> names = new TreeMap<>();
 
-    public NameBSTNode(String name, int userId) {
-        this.name = name;
-        this.userId = userId;
-        left = right = null;
+    public synchronized void add(String name, int userId) {
+        names.computeIfAbsent(name.toLowerCase(), k -> new ArrayList<>(1)).add(userId);
+    }
+
+    public synchronized void clear() {
+        names.clear();
+    }
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    // Users whose full name matches exactly
+    public synchronized List<Integer> exact(String name) {
+        List<Integer> userIds = names.get(name.toLowerCase());
+        return userIds == null ? new ArrayList<>() : new ArrayList<>(userIds);
+    }
+
+    // Users whose full name starts with the given text
+    public synchronized List<Integer> prefix(String prefix) {
+        String from = prefix.toLowerCase();
+        return collect(names.subMap(from, true, from + Character.MAX_VALUE, false));
+    }
+
+    // Users whose full name lies between from and to (both inclusive)
+    public synchronized List<Integer> range(String from, String to) {
+        String low = from.toLowerCase();
+        String high = to.toLowerCase();
+        if (low.compareTo(high) > 0) {
+            return new ArrayList<>();
+        }
+        return collect(names.subMap(low, true, high, true));
+    }
+
+    private static List<Integer> collect(SortedMap<String, List<Integer>> slice) {
+        List<Integer> userIds = new ArrayList<>();
+        for (List<Integer> ids : slice.values()) {
+            userIds.addAll(ids);
+        }
+        return userIds;
+    }
+}
+
+// Trigram index over name, email and mobile for partial and misspelled searches (synchronized like NameIndex)
+class TrigramIndex {
+    private final HashMap<String, Set<Integer>> postings = new HashMap<>();
+    private final HashMap<Integer, Integer> gramCounts = new HashMap<>();
+
+    public synchronized void add(int userId, String... fields) {
+        Set<String> grams = new HashSet<>();
+        for (String field : fields) {
+            if (field != null) {
+                grams.addAll(trigrams(field));
+            }
+        }
+        for (String gram : grams) {
+            postings.computeIfAbsent(gram, k -> new HashSet<>()).add(userId);
+        }
+        gramCounts.merge(userId, grams.size(), Integer::sum);
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        gramCounts.clear();
+    }
+
+    // Best matching users first; a user must share at least a third of the query's trigrams
+    public synchronized List<Integer> search(String query, int limit) {
+        Set<String> queryGrams = trigrams(query);
+        if (queryGrams.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        HashMap<Integer, Integer> shared = new HashMap<>();
+        for (String gram : queryGrams) {
+            Set<Integer> userIds = postings.get(gram);
+            if (userIds != null) {
+                for (int userId : userIds) {
+                    shared.merge(userId, 1, Integer::sum);
+                }
+            }
+        }
+
+        int minShared = Math.max(1, (queryGrams.size() + 2) / 3);
+        List<int[]> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : shared.entrySet()) {
+            if (entry.getValue() >= minShared) {
+                candidates.add(new int[] { entry.getKey(), entry.getValue() });
+            }
+        }
+
+        // Most shared trigrams first, then the user with fewer trigrams overall (closer match)
+        candidates.sort((a, b) -> a[1] != b[1]
+                ? Integer.compare(b[1], a[1])
+                : Integer.compare(gramCounts.get(a[0]), gramCounts.get(b[0])));
+
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < candidates.size() && i < limit; i++) {
+            result.add(candidates.get(i)[0]);
+        }
+        return result;
+    }
+
+    // Each word is padded so that short words and word starts still produce trigrams
+    private static Set<String> trigrams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (String word : text.toLowerCase().split("[^a-z0-9]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                grams.add(padded.substring(i, i + 3));
+            }
+        }
+        return grams;
     }
 }
 
 // Abstract class for common banking operations using Strategy Pattern
 abstract class BankingOperations {
-    public abstract void performTransaction(User user, double amount) throws Exception;
-    public abstract String getTransactionType();
+    public abstract void performTransaction(Account account, long amount) throws Exception;
+    // Same posting as a relative UPDATE, so the database does the arithmetic (relative updates mode)
+    public abstract void performInDatabase(Connection con, int accountNo, long amount) throws SQLException;
+    public abstract Transaction.Type getTransactionType();
+    // Other account named on the ledger row, 0 for a plain deposit or withdrawal
+    public int getCounterparty() {
+        return 0;
+    }
 }
 
 // Concrete class for withdrawal operations
 class WithdrawOperation extends BankingOperations {
     @Override
-    public void performTransaction(User user, double amount) {
+    public void performTransaction(Account account, long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
-        if (user.getBalance() < amount) {
+        if (account.getBalance() < amount) {
+            throw new IllegalArgumentException("Insufficient balance.");
+        }
+        account.setBalance(account.getBalance() - amount);
+    }
+
+    @Override
+    public void performInDatabase(Connection con, int accountNo, long amount) throws SQLException {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        PreparedStatement ps = con.prepareStatement(
+                "UPDATE accounts SET balance = balance - ?, version = version + 1 WHERE accountNo = ? AND balance >= ?");
+        ps.setLong(1, amount);
+        ps.setInt(2, accountNo);
+        ps.setLong(3, amount);
+        int rows = ps.executeUpdate();
+        ps.close();
+        if (rows == 0) {
             throw new IllegalArgumentException("Insufficient balance.");
         }
-        double newBalance = user.getBalance() - amount;
-        user.setBalance(newBalance);
     }
 
     @Override
-    public String getTransactionType() {
-        return "Withdraw";
+    public Transaction.Type getTransactionType() {
+        return Transaction.Type.WITHDRAW;
     }
 }
 
 // Concrete class for deposit operations
 class DepositOperation extends BankingOperations {
     @Override
-    public void performTransaction(User user, double amount) {
+    public void performTransaction(Account account, long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount must be positive.");
         }
-        double newBalance = user.getBalance() + amount;
-        user.setBalance(newBalance);
+        account.setBalance(Math.addExact(account.getBalance(), amount));
     }
 
     @Override
-    public String getTransactionType() {
-        return "Deposit";
+    public void performInDatabase(Connection con, int accountNo, long amount) throws SQLException {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        PreparedStatement ps = con.prepareStatement(
+                "UPDATE accounts SET balance = balance + ?, version = version + 1 WHERE accountNo = ?");
+        ps.setLong(1, amount);
+        ps.setInt(2, accountNo);
+        int rows = ps.executeUpdate();
+        ps.close();
+        if (rows == 0) {
+            throw new SQLException("Account " + accountNo + " not found in database.");
+        }
+    }
+
+    @Override
+    public Transaction.Type getTransactionType() {
+        return Transaction.Type.DEPOSIT;
     }
 }
 
 // Main Bank class
 class Bank {
     // Data structures to store user and account information
-    public static final HashMap<Integer, User> users = new HashMap<>();
-    public static final HashMap<Integer, List<User>> userAccounts = new HashMap<>();
-    public static final HashMap<Integer, Integer> accountNoToUserId = new HashMap<>();
-    public static final TreeMap<String, List<Integer>> nameToUsers = new TreeMap<>();
+    // Concurrent maps so several sessions can read and post at the same time
+    public static final ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+    public static final ConcurrentHashMap<Integer, List<Account>> userAccounts = new ConcurrentHashMap<>();
+    public static final ConcurrentHashMap<Integer, Integer> accountNoToUserId = new ConcurrentHashMap<>();
+    public static final ConcurrentHashMap<Integer, Account> accountsByNo = new ConcurrentHashMap<>();
+    // Unique identifier indexes (mirror the UNIQUE columns of the users table)
+    public static final ConcurrentHashMap<String, Integer> mobileToUserId = new ConcurrentHashMap<>();
+    public static final ConcurrentHashMap<String, Integer> aadhaarToUserId = new ConcurrentHashMap<>();
+    public static final ConcurrentHashMap<String, Integer> panToUserId = new ConcurrentHashMap<>();
+    // Balance changes on an account happen only while holding its stripe
+    public static final AccountLocks accountLocks = new AccountLocks(64);
+    // Optional single-writer mode, replaces the locks when shardCount > 0
+    public static int shardCount;
+    public static AccountShards shards;
+    public static final NameIndex nameIndex = new NameIndex();
+    public static final TrigramIndex searchIndex = new TrigramIndex();
     public static int nextUserId = 24001;
     public static int nextAccountNo = 24002170;
     public static final String ADMIN_ID = "admin";
     public static final String ADMIN_PASSWORD = "admin123";
+    // Where users, accounts and history are persisted: "jdbc" (MySQL) or "memory" (nothing survives exit)
+    public static String storageBackend;
+    public static BankStorage storage;
     public static String dburl;
     public static String dbuser;
     public static String dbpass;
-    public static Connection con;
+    public static ConnectionPool pool; // the JDBC backend's pool, null with the in-memory backend
+    public static int poolMinSize;
+    public static int poolMaxSize;
+    public static int statementCacheSize; // prepared statements kept per pooled connection, 0 turns caching off
+    public static boolean traceConnectionLeaks; // record where every connection is borrowed, costly on each borrow
     public static Scanner scanner = new Scanner(System.in);
-    public static NameBSTNode nameBST = null;
+    // Network front end (java Bank --serve <port>), see BankServer
+    public static int maxSessions;
+    public static int sessionIdleTimeoutMs;
+    public static String serverBindAddress; // passwords and MPINs travel in plain text, keep it on loopback
+    public static int importBatchSize; // rows per storage batch of a bulk import (java Bank --import <csv>)
+    public static int disburseBatchSize; // credits posted at once by a disbursement (java Bank --disburse <file>)
+    public static boolean lazyLoad; // load history and schemes on first access instead of at startup
+    // Write-ahead journal mode, postings are acknowledged once journaled and flushed to the tables later
+    public static boolean journalEnabled;
+    public static String journalPath;
+    public static PostingJournal journal;
+    // Binary snapshot of users and accounts, read at startup instead of the full SQL load
+    public static String snapshotPath;
+    public static int snapshotIntervalMinutes; // 0 writes it on exit only
+    public static int loadPartitions; // accountNo ranges loaded concurrently by a full load, 1 = one streamed query
+    // Postings as conditional relative UPDATEs, safe when several app instances share the database
+    public static boolean relativeUpdates;
+    // Optimistic concurrency on accounts.version, see onVersionConflict
+    static final int MAX_VERSION_ATTEMPTS = 8;
+    static final long VERSION_BACKOFF_BASE_MS = 5;
+    static final long VERSION_BACKOFF_MAX_MS = 200;
+    static final AtomicLong versionConflicts = new AtomicLong();
+    static final AtomicLong versionRetriesExhausted = new AtomicLong();
 
     public static void main(String[] args) throws Exception {
+        storageBackend = "jdbc"; // "memory" to run without a database server
         // Database connection details
-        dburl = "jdbc:mysql://localhost:3306/bank";
+        dburl = "jdbc:mysql://localhost:3306/bank?useServerPrepStmts=true&rewriteBatchedStatements=true";
         dbuser = "root";
         dbpass = "";
-
-        // Initialize database connection
-        initializeDatabase();
-        // Load accounts from database
-        loadAccountsFromDatabase();
+        poolMinSize = 2;
+        poolMaxSize = 10;
+        statementCacheSize = 32;
+        traceConnectionLeaks = false;
+        lazyLoad = true;
+        shardCount = 0; // e.g. 8 to run postings on single-writer account shards
+        relativeUpdates = false;
+        journalEnabled = false;
+        journalPath = "bank.journal";
+        snapshotPath = "bank.snapshot";
+        snapshotIntervalMinutes = 10;
+        loadPartitions = 4;
+        maxSessions = 10_000;
+        sessionIdleTimeoutMs = 5 * 60_000;
+        serverBindAddress = "127.0.0.1";
+        importBatchSize = 1000;
+        disburseBatchSize = 256;
+
+        // Initialize storage (and the database connection with the JDBC backend)
+        initializeStorage();
+        // Journal, snapshot and relative updates all work on the database tables
+        if (pool == null && (journalEnabled || relativeUpdates || snapshotIntervalMinutes > 0)) {
+            System.out.println("In-memory storage, ignoring journal, snapshot and relative updates settings.");
+            journalEnabled = false;
+            relativeUpdates = false;
+            snapshotIntervalMinutes = 0;
+        }
+        long nextJournalSeq = 1;
+        if (pool != null) {
+            // Postings journaled before a crash go into the tables before anything is loaded
+            nextJournalSeq = PostingJournal.recover(Paths.get(journalPath));
+        }
+        // Likewise cross-shard transfer credits a crash left owed, see AccountShards
+        int settledCredits = storage.settlePendingCredits();
+        if (settledCredits > 0) {
+            System.out.println("Settled " + settledCredits + " transfer credit(s) left pending by the last run.");
+        }
+        // Load accounts from the snapshot (caught up with the tables), or from storage without one
+        if (pool == null || !BankSnapshot.load(Paths.get(snapshotPath))) {
+            loadAccountsFromStorage();
+        }
+
+        if (shardCount > 0 && relativeUpdates) {
+            // Shards only serialise this process, the database is the arbiter in relative mode
+            System.out.println("Relative updates mode is on, ignoring shardCount.");
+        } else if (shardCount > 0) {
+            shards = new AccountShards(shardCount, 4096, 256);
+            shards.start();
+            System.out.println("Postings run on " + shardCount + " account shards.");
+        }
+        if (journalEnabled && (shards != null || relativeUpdates)) {
+            System.out.println("Journal mode only applies to locked postings, ignoring journalEnabled.");
+        } else if (journalEnabled) {
+            journal = new PostingJournal(Paths.get(journalPath), nextJournalSeq, 20, 500);
+            journal.start();
+            System.out.println("Postings are journaled to " + journalPath + ".");
+        }
+        // Shard workers change balances without the account locks, so they only get the exit snapshot
+        if (snapshotIntervalMinutes > 0 && shards == null) {
+            ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshots.scheduleWithFixedDelay(Bank::saveSnapshot, snapshotIntervalMinutes, snapshotIntervalMinutes,
+                    TimeUnit.MINUTES);
+        }
+
+        // Headless run: execute a command file instead of the menus (see BatchRunner)
+        if (args.length == 2 && args[0].equals("--batch")) {
+            BatchRunner.run(Paths.get(args[1]));
+            shutdown();
+            return;
+        }
+        // Bulk onboarding: import a customer CSV, see BulkImporter
+        if (args.length == 2 && args[0].equals("--import")) {
+            BulkImporter.run(Paths.get(args[1]), importBatchSize);
+            shutdown();
+            return;
+        }
+        // Salary and vendor runs: pay a payment file from one account, see Disbursement
+        if (args.length == 2 && args[0].equals("--disburse")) {
+            try {
+                Disbursement.run(Paths.get(args[1]), disburseBatchSize);
+            } finally {
+                shutdown(); // the journal and pool must be closed even if the run fails
+            }
+            return;
+        }
+        // Network front end: serve sessions until "stop" is typed here
+        if (args.length == 2 && args[0].equals("--serve")) {
+            BankServer server = new BankServer(serverBindAddress, Integer.parseInt(args[1]), maxSessions,
+                    sessionIdleTimeoutMs);
+            server.start();
+            System.out.println("Serving on " + serverBindAddress + " port " + server.getPort() + ", up to " + maxSessions
+                    + " sessions. Type stop to shut down.");
+            while (scanner.hasNextLine() && !scanner.nextLine().trim().equalsIgnoreCase("stop")) {
+                System.out.println(server.statsReport());
+            }
+            server.shutdown();
+            System.out.println(server.statsReport());
+            shutdown();
+            return;
+        }
 
         boolean exit = true;
 
@@ -132,7 +430,7 @@ class Bank {
                     break;
                 case 6:
                     exit = false;
-                    saveAccountsToFile();
+                    shutdown();
                     System.out.println("Thank you for using Bank Management System!");
                     break;
                 default:
@@ -141,16 +439,42 @@ class Bank {
         }
     }
 
+    // Drain the posting pipelines, save the exports and print the run's statistics
+    private static void shutdown() throws Exception {
+        if (shards != null) {
+            shards.shutdown();
+        }
+        if (journal != null) {
+            journal.shutdown();
+            System.out.println(journal.statsReport());
+        }
+        saveAccountsToFile();
+        if (pool != null) {
+            saveSnapshot();
+        }
+        if (accountLocks.totalContention() > 0) {
+            System.out.println(accountLocks.contentionReport());
+        }
+        if (versionConflicts.get() > 0) {
+            System.out.println(versionConflictReport());
+        }
+        System.out.println(storage.statsReport());
+        storage.shutdown();
+    }
+
     // Check if date of birth is in a leap year
     private static boolean isLeapYear(LocalDate dob) {
         int year = dob.getYear();
         return (year % 4 == 0 && year % 100 != 0) || (year % 400 == 0);
     }
 
+    // Compiled once, the bulk importer checks this for every row
+    private static final Pattern EMAIL_PATTERN =
+            Pattern.compile("^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$");
+
     // Validate email with multiple domains
-    private static boolean isValidEmail(String email) {
-        String emailRegex = "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
-        return Pattern.compile(emailRegex).matcher(email).matches();
+    static boolean isValidEmail(String email) {
+        return EMAIL_PATTERN.matcher(email).matches();
     }
 
     // CARD APPLICATION METHOD
@@ -171,12 +495,12 @@ class Bank {
             }
 
             System.out.println("Select an account to apply for card:");
-            List<User> accounts = userAccounts.get(userId);
+            List<Account> accounts = userAccounts.get(userId);
             for (int i = 0; i < accounts.size(); i++) {
-                User account = accounts.get(i);
+                Account account = accounts.get(i);
                 System.out.println((i+1) + ") Account No: " + account.getAccountNo() +
                         " - Type: " + account.getAccountType() +
-                        " - Balance: ₹" + account.getBalance());
+                        " - Balance: ₹" + Money.format(account.getBalance()));
             }
             System.out.print("Enter account choice: ");
             int accountChoice = scanner.nextInt();
@@ -187,7 +511,7 @@ class Bank {
                 return;
             }
 
-            User account = accounts.get(accountChoice - 1);
+            Account account = accounts.get(accountChoice - 1);
 
             System.out.println("1) Debit Card Application");
             System.out.println("2) Credit Card Application");
@@ -195,39 +519,18 @@ class Bank {
             int cardChoice = scanner.nextInt();
             scanner.nextLine();
 
-            boolean success = false;
-            if (cardChoice == 1) {
-                if (account.hasDebitCard()) {
-                    System.out.println("This account already has a debit card.");
-                    return;
-                }
-                account.setHasDebitCard(true);
-                System.out.println("Debit card application submitted successfully.");
-                success = true;
-            } else if (cardChoice == 2) {
-                if (account.hasCreditCard()) {
-                    System.out.println("This account already has a credit card.");
-                    return;
-                }
-                account.setHasCreditCard(true);
-                System.out.println("Credit card application submitted successfully.");
-                success = true;
-            } else {
+            if (cardChoice != 1 && cardChoice != 2) {
                 System.out.println("Invalid choice.");
+                return;
             }
 
-            if (success) {
-                try {
-                    PreparedStatement ps = con.prepareStatement(
-                            "UPDATE accounts SET hasDebitCard = ?, hasCreditCard = ? WHERE accountNo = ?");
-                    ps.setInt(1, account.hasDebitCard() ? 1 : 0);
-                    ps.setInt(2, account.hasCreditCard() ? 1 : 0);
-                    ps.setInt(3, account.getAccountNo());
-                    ps.executeUpdate();
-                    ps.close();
-                } catch (SQLException e) {
-                    System.out.println("Error updating card status: " + e.getMessage());
-                }
+            try {
+                BankService.issueCard(account.getAccountNo(), cardChoice == 2);
+                System.out.println((cardChoice == 2 ? "Credit" : "Debit") + " card application submitted successfully.");
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            } catch (SQLException e) {
+                System.out.println("Error updating card status: " + e.getMessage());
             }
         } else {
             System.out.println("Please create an account first to apply for a card.");
@@ -265,7 +568,7 @@ class Bank {
         }
 
         // Show accounts for this user
-        List<User> accounts = userAccounts.get(userId);
+        List<Account> accounts = userAccounts.get(userId);
         if (accounts == null || accounts.isEmpty()) {
             System.out.println("No accounts found for this user.");
             return;
@@ -273,10 +576,10 @@ class Bank {
 
         System.out.println("Select an account to login:");
         for (int i = 0; i < accounts.size(); i++) {
-            User account = accounts.get(i);
+            Account account = accounts.get(i);
             System.out.println((i+1) + ") Account No: " + account.getAccountNo() +
                     " - Type: " + account.getAccountType() +
-                    " - Balance: ₹" + account.getBalance());
+                    " - Balance: ₹" + Money.format(account.getBalance()));
         }
         System.out.print("Enter account choice: ");
         int accountChoice = scanner.nextInt();
@@ -287,7 +590,7 @@ class Bank {
             return;
         }
 
-        User account = accounts.get(accountChoice - 1);
+        Account account = accounts.get(accountChoice - 1);
 
         System.out.print("Enter MPIN (6 digits): ");
         String mpin = scanner.nextLine();
@@ -302,14 +605,14 @@ class Bank {
     }
 
     // USER MENU
-    private static void userMenu(User user, User account) {
+    private static void userMenu(User user, Account account) {
         boolean logout = false;
 
         while (!logout) {
             System.out.println("\n=== USER DASHBOARD ===");
             System.out.println("Welcome, " + user.getFirstName() + " " + user.getLastName() + "!");
             System.out.println("Account No: " + account.getAccountNo());
-            System.out.println("Balance: ₹" + account.getBalance());
+            System.out.println("Balance: ₹" + Money.format(account.getBalance()));
             System.out.println("\n1) Withdraw Money");
             System.out.println("2) Deposit Money");
             System.out.println("3) Transfer Money");
@@ -355,13 +658,13 @@ class Bank {
                         break;
                     case 8:
                         // Switch to another account
-                        List<User> accounts = userAccounts.get(user.getUserId());
+                        List<Account> accounts = userAccounts.get(user.getUserId());
                         System.out.println("Select an account:");
                         for (int i = 0; i < accounts.size(); i++) {
-                            User acc = accounts.get(i);
+                            Account acc = accounts.get(i);
                             System.out.println((i+1) + ") Account No: " + acc.getAccountNo() +
                                     " - Type: " + acc.getAccountType() +
-                                    " - Balance: ₹" + acc.getBalance());
+                                    " - Balance: ₹" + Money.format(acc.getBalance()));
                         }
                         System.out.print("Enter account choice: ");
                         int accountChoice = scanner.nextInt();
@@ -372,7 +675,7 @@ class Bank {
                             break;
                         }
 
-                        User newAccount = accounts.get(accountChoice - 1);
+                        Account newAccount = accounts.get(accountChoice - 1);
                         System.out.print("Enter MPIN for account " + newAccount.getAccountNo() + ": ");
                         String mpin = scanner.nextLine();
 
@@ -401,7 +704,7 @@ class Bank {
     }
 
     // View mutual funds for savings accounts
-    private static void viewMutualFunds(User account) {
+    private static void viewMutualFunds(Account account) {
         System.out.println("\n=== MUTUAL FUNDS ===");
 
         // Only available for savings accounts
@@ -419,7 +722,7 @@ class Bank {
     }
 
     // APPLY FOR CARD FROM USER MENU
-    private static void applyForCard(User account) {
+    private static void applyForCard(Account account) {
         System.out.println("\n=== CARD APPLICATION ===");
 
         System.out.println("1) Debit Card Application");
@@ -428,39 +731,18 @@ class Bank {
         int cardChoice = scanner.nextInt();
         scanner.nextLine();
 
-        boolean success = false;
-        if (cardChoice == 1) {
-            if (account.hasDebitCard()) {
-                System.out.println("This account already has a debit card.");
-                return;
-            }
-            account.setHasDebitCard(true);
-            System.out.println("Debit card application submitted successfully.");
-            success = true;
-        } else if (cardChoice == 2) {
-            if (account.hasCreditCard()) {
-                System.out.println("This account already has a credit card.");
-                return;
-            }
-            account.setHasCreditCard(true);
-            System.out.println("Credit card application submitted successfully.");
-            success = true;
-        } else {
+        if (cardChoice != 1 && cardChoice != 2) {
             System.out.println("Invalid choice.");
+            return;
         }
 
-        if (success) {
-            try {
-                PreparedStatement ps = con.prepareStatement(
-                        "UPDATE accounts SET hasDebitCard = ?, hasCreditCard = ? WHERE accountNo = ?");
-                ps.setInt(1, account.hasDebitCard() ? 1 : 0);
-                ps.setInt(2, account.hasCreditCard() ? 1 : 0);
-                ps.setInt(3, account.getAccountNo());
-                ps.executeUpdate();
-                ps.close();
-            } catch (SQLException e) {
-                System.out.println("Error updating card status: " + e.getMessage());
-            }
+        try {
+            BankService.issueCard(account.getAccountNo(), cardChoice == 2);
+            System.out.println((cardChoice == 2 ? "Credit" : "Debit") + " card application submitted successfully.");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.out.println("Error updating card status: " + e.getMessage());
         }
     }
 
@@ -506,12 +788,8 @@ class Bank {
             System.out.println("Passwords do not match. Please try again.");
         }
 
-        // Update password in database
-        PreparedStatement ps = con.prepareStatement("UPDATE users SET password = ? WHERE userId = ?");
-        ps.setString(1, newPassword);
-        ps.setInt(2, user.getUserId());
-        ps.executeUpdate();
-        ps.close();
+        // Update password in storage
+        storage.updatePassword(user.getUserId(), newPassword);
 
         // Update local object
         user.password = newPassword;
@@ -520,38 +798,17 @@ class Bank {
     }
 
     // MODIFIED WITHDRAW METHOD (with User parameter)
-    private static void withdrawMoney(User account) throws Exception {
+    private static void withdrawMoney(Account account) throws Exception {
         System.out.println("\n=== WITHDRAW MONEY ===");
 
         System.out.print("Enter amount to withdraw: ₹");
-        double amount = scanner.nextDouble();
-        scanner.nextLine(); // Consume newline
-
-        // Use abstract class for withdrawal operation
-        BankingOperations withdrawOp = new WithdrawOperation();
+        long amount = Money.parse(scanner.nextLine());
 
         try {
-            withdrawOp.performTransaction(account, amount);
+            // Use abstract class for withdrawal operation
+            BankService.withdraw(account.getAccountNo(), amount);
 
-            // Update database
-            PreparedStatement ps = con.prepareStatement("UPDATE accounts SET balance = ? WHERE accountNo = ?");
-            ps.setDouble(1, account.getBalance());
-            ps.setInt(2, account.getAccountNo());
-            ps.executeUpdate();
-            ps.close();
-
-            String transaction = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) +
-                    " - Withdraw: ₹" + amount + ", New Balance: ₹" + account.getBalance();
-            account.addTransaction(transaction);
-
-            // Update database transaction history
-            ps = con.prepareStatement("INSERT INTO transactions VALUES (?, ?)");
-            ps.setInt(1, account.getAccountNo());
-            ps.setString(2, transaction);
-            ps.executeUpdate();
-            ps.close();
-
-            System.out.println("Withdrawal successful. New balance: ₹" + account.getBalance());
+            System.out.println("Withdrawal successful. New balance: ₹" + Money.format(account.getBalance()));
         } catch (SQLException e) {
             if (e.getMessage().contains("Balance cannot be negative")) {
                 System.out.println("Withdrawal failed: Balance cannot be negative.");
@@ -564,38 +821,17 @@ class Bank {
     }
 
     // MODIFIED DEPOSIT METHOD (with User parameter)
-    private static void depositMoney(User account) throws Exception {
+    private static void depositMoney(Account account) throws Exception {
         System.out.println("\n=== DEPOSIT MONEY ===");
 
         System.out.print("Enter amount to deposit: ₹");
-        double amount = scanner.nextDouble();
-        scanner.nextLine(); // Consume newline
-
-        // Use abstract class for deposit operation
-        BankingOperations depositOp = new DepositOperation();
+        long amount = Money.parse(scanner.nextLine());
 
         try {
-            depositOp.performTransaction(account, amount);
-
-            // Update database
-            PreparedStatement ps = con.prepareStatement("UPDATE accounts SET balance = ? WHERE accountNo = ?");
-            ps.setDouble(1, account.getBalance());
-            ps.setInt(2, account.getAccountNo());
-            ps.executeUpdate();
-            ps.close();
+            // Use abstract class for deposit operation
+            BankService.deposit(account.getAccountNo(), amount);
 
-            String transaction = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) +
-                    " - Deposit: ₹" + amount + ", New Balance: ₹" + account.getBalance();
-            account.addTransaction(transaction);
-
-            // Update database transaction history
-            ps = con.prepareStatement("INSERT INTO transactions VALUES (?, ?)");
-            ps.setInt(1, account.getAccountNo());
-            ps.setString(2, transaction);
-            ps.executeUpdate();
-            ps.close();
-
-            System.out.println("Deposit successful. New balance: ₹" + account.getBalance());
+            System.out.println("Deposit successful. New balance: ₹" + Money.format(account.getBalance()));
         } catch (SQLException e) {
             if (e.getMessage().contains("Balance cannot be negative")) {
                 System.out.println("Deposit failed: Balance cannot be negative.");
@@ -608,7 +844,7 @@ class Bank {
     }
 
     // MODIFIED TRANSFER METHOD (with User parameters)
-    private static void transferMoney(User fromUser, User fromAccount) throws Exception {
+    private static void transferMoney(User fromUser, Account fromAccount) throws Exception {
         System.out.println("\n=== TRANSFER MONEY ===");
         System.out.println("1) Transfer via Bank Account");
         System.out.println("2) Transfer via UPI (Mobile Number)");
@@ -623,7 +859,7 @@ class Bank {
         scanner.nextLine(); // Consume newline
 
         int toAccountNo ;
-        User toAccount = null;
+        Account toAccount = null;
         User toUser = null;
 
         if (transferChoice == 1) {
@@ -632,38 +868,21 @@ class Bank {
             toAccountNo = scanner.nextInt();
             scanner.nextLine(); // Consume newline
 
-            if (!accountNoToUserId.containsKey(toAccountNo)) {
-                System.out.println("Recipient account not found.");
-                return;
-            }
-
-            int toUserId = accountNoToUserId.get(toAccountNo);
-            toUser = users.get(toUserId);
-
-            // Find the account with the specified account number
-            List<User> toAccounts = userAccounts.get(toUserId);
-            for (User acc : toAccounts) {
-                if (acc.getAccountNo() == toAccountNo) {
-                    toAccount = acc;
-                    break;
-                }
-            }
-
+            toAccount = accountsByNo.get(toAccountNo);
             if (toAccount == null) {
                 System.out.println("Recipient account not found.");
                 return;
             }
+            toUser = users.get(toAccount.getUserId());
         } else if (transferChoice == 2) {
             // UPI transfer via mobile number
             System.out.print("Enter recipient's Mobile Number: ");
             String mobileNumber = scanner.nextLine();
 
             // Search for user by mobile number
-            for (User user : users.values()) {
-                if (user.getMobileNumber().equals(mobileNumber)) {
-                    toUser = user;
-                    break;
-                }
+            Integer toUserId = mobileToUserId.get(mobileNumber);
+            if (toUserId != null) {
+                toUser = users.get(toUserId);
             }
 
             if (toUser == null) {
@@ -672,7 +891,7 @@ class Bank {
             }
 
             // Get the first account of the recipient (or let them choose if multiple)
-            List<User> toAccounts = userAccounts.get(toUser.getUserId());
+            List<Account> toAccounts = userAccounts.get(toUser.getUserId());
             if (toAccounts == null || toAccounts.isEmpty()) {
                 System.out.println("Recipient has no accounts.");
                 return;
@@ -700,97 +919,373 @@ class Bank {
         }
 
         System.out.print("Enter amount to transfer: ₹");
-        double amount = scanner.nextDouble();
-        scanner.nextLine();
+        long amount = Money.parse(scanner.nextLine());
 
         if (amount <= 0) {
             System.out.println("Amount must be positive.");
             return;
         }
 
-        // Use abstract class for withdrawal operation
-        BankingOperations withdrawOp = new WithdrawOperation();
-        BankingOperations depositOp = new DepositOperation();
-
         try {
-            con.setAutoCommit(false);
-
-            // Withdraw from sender
-            withdrawOp.performTransaction(fromAccount, amount);
+            BankService.transfer(fromAccount.getAccountNo(), toAccountNo, amount);
 
-            PreparedStatement ps = con.prepareStatement("UPDATE accounts SET balance = ? WHERE accountNo = ?");
-            ps.setDouble(1, fromAccount.getBalance());
-            ps.setInt(2, fromAccount.getAccountNo());
-            ps.executeUpdate();
+            System.out.println("Transfer successful.");
+            System.out.println("Your new balance: ₹" + Money.format(fromAccount.getBalance()));
+        } catch (SQLException e) {
+            if (e.getMessage().contains("Balance cannot be negative")) {
+                System.out.println("Transfer failed: Balance cannot be negative.");
+            } else {
+                System.out.println("Error during transfer: " + e.getMessage());
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Transfer failed: " + e.getMessage());
+        }
+    }
 
-            // Deposit to receiver
-            depositOp.performTransaction(toAccount, amount);
+    // POST TO ONE ACCOUNT
+    // Applies a withdraw/deposit strategy and persists it while holding the account's lock.
+    // The row is only written if its version is still the one we read (see onVersionConflict);
+    // if the database write fails the in-memory balance is put back (or re-read if the write may have committed).
+    static Transaction postToAccount(Account account, BankingOperations operation, long amount) throws Exception {
+        account.ensureHydrated(); // before the write, see Account.ensureHydrated
+        if (relativeUpdates) {
+            return postRelative(account, operation, amount);
+        }
+        if (shards != null) {
+            return awaitShard(shards.post(account, operation, amount));
+        }
+        if (journal != null) {
+            return postJournaled(account, operation, amount);
+        }
+        accountLocks.lock(account.getAccountNo());
+        try {
+            for (int attempt = 1; ; attempt++) {
+                long balanceBefore = account.getBalance();
+                long expectedVersion = account.getVersion();
+                operation.performTransaction(account, amount);
+                Transaction transaction = new Transaction(System.currentTimeMillis(), operation.getTransactionType(),
+                        amount, operation.getCounterparty(), account.getBalance());
+                boolean written;
+                try {
+                    // Update the stored balance and transaction history
+                    written = storage.postBalance(account, expectedVersion, transaction);
+                } catch (SQLException e) {
+                    account.setBalance(balanceBefore);
+                    if (BankStorage.OUTCOME_UNKNOWN.equals(e.getSQLState())) {
+                        // Take whatever the table holds; if it cannot be read the old version makes the next write re-read it
+                        refreshQuietly(account);
+                    }
+                    throw e;
+                }
+                if (!written) {
+                    account.setBalance(balanceBefore);
+                    onVersionConflict(account, attempt);
+                    accountLocks.unlock(account.getAccountNo());
+                    try {
+                        backOff(account, attempt);
+                    } finally {
+                        accountLocks.lock(account.getAccountNo());
+                    }
+                    continue;
+                }
+                account.setVersion(expectedVersion + 1);
+                account.addTransaction(transaction);
+                return transaction;
+            }
+        } finally {
+            accountLocks.unlock(account.getAccountNo());
+        }
+    }
 
-            ps.setDouble(1, toAccount.getBalance());
-            ps.setInt(2, toAccountNo);
-            ps.executeUpdate();
+    // Journal mode: the posting is acknowledged once its frame is fsynced; the journal's flusher writes
+    // it to the tables later. The lock is held until then so no posting builds on a balance that
+    // could still be lost.
+    private static Transaction postJournaled(Account account, BankingOperations operation, long amount) throws Exception {
+        accountLocks.lock(account.getAccountNo());
+        try {
+            account.ensureHydrated(); // now, the newest rows may only be in the journal for a while
+            long balanceBefore = account.getBalance();
+            operation.performTransaction(account, amount);
+            Transaction transaction = new Transaction(System.currentTimeMillis(), operation.getTransactionType(),
+                    amount, operation.getCounterparty(), account.getBalance());
+            try {
+                journal.append(new PostingJournal.Entry(account.getAccountNo(), transaction));
+            } catch (IOException e) {
+                account.setBalance(balanceBefore);
+                throw new SQLException(e.getMessage(), e);
+            }
+            account.addTransaction(transaction);
+            return transaction;
+        } finally {
+            accountLocks.unlock(account.getAccountNo());
+        }
+    }
 
-            con.commit();
-            con.setAutoCommit(true);
+    // Both sides of a journaled transfer share one frame, so replay never applies half of it
+    private static void postTransferJournaled(Account fromAccount, Account toAccount, long amount) throws Exception {
+        int fromAccountNo = fromAccount.getAccountNo();
+        int toAccountNo = toAccount.getAccountNo();
 
-            String fromTransaction = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) +
-                    " - Transfer to " + toUser.getFirstName() + " " + toUser.getLastName() +
-                    " (" + toAccountNo + "): ₹" + amount +
-                    ", New Balance: ₹" + fromAccount.getBalance();
+        accountLocks.lockPair(fromAccountNo, toAccountNo);
+        try {
+            fromAccount.ensureHydrated();
+            toAccount.ensureHydrated();
+            long fromBefore = fromAccount.getBalance();
+            long toBefore = toAccount.getBalance();
 
-            String toTransaction = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) +
-                    " - Transfer from " + fromUser.getFirstName() + " " + fromUser.getLastName() +
-                    " (" + fromAccount.getAccountNo() + "): ₹" + amount +
-                    ", New Balance: ₹" + toAccount.getBalance();
+            new WithdrawOperation().performTransaction(fromAccount, amount);
+            try {
+                new DepositOperation().performTransaction(toAccount, amount);
+            } catch (RuntimeException e) {
+                fromAccount.setBalance(fromBefore);
+                throw e;
+            }
 
+            long now = System.currentTimeMillis();
+            Transaction fromTransaction = new Transaction(now, Transaction.Type.TRANSFER_OUT,
+                    amount, toAccountNo, fromAccount.getBalance());
+            Transaction toTransaction = new Transaction(now, Transaction.Type.TRANSFER_IN,
+                    amount, fromAccountNo, toAccount.getBalance());
+            try {
+                journal.append(new PostingJournal.Entry(fromAccountNo, fromTransaction),
+                        new PostingJournal.Entry(toAccountNo, toTransaction));
+            } catch (IOException e) {
+                fromAccount.setBalance(fromBefore);
+                toAccount.setBalance(toBefore);
+                throw new SQLException(e.getMessage(), e);
+            }
             fromAccount.addTransaction(fromTransaction);
             toAccount.addTransaction(toTransaction);
+        } finally {
+            accountLocks.unlockPair(fromAccountNo, toAccountNo);
+        }
+    }
 
-            ps = con.prepareStatement("INSERT INTO transactions VALUES (?, ?)");
-            ps.setInt(1, fromAccount.getAccountNo());
-            ps.setString(2, fromTransaction);
-            ps.executeUpdate();
-
-            ps.setInt(1, toAccountNo);
-            ps.setString(2, toTransaction);
-            ps.executeUpdate();
-            ps.close();
+    // Relative mode: the UPDATE is conditional on the row, so another instance sharing the database
+    // cannot be overwritten. The row is read back inside the same transaction and copied to memory;
+    // the stripe lock only keeps this process's copies of the account in order.
+    private static Transaction postRelative(Account account, BankingOperations operation, long amount) throws Exception {
+        int accountNo = account.getAccountNo();
+        accountLocks.lock(accountNo);
+        try (Connection con = pool.borrow()) {
+            con.setAutoCommit(false);
+            try {
+                operation.performInDatabase(con, accountNo, amount);
+                JdbcStorage.refreshAccount(con, account, true);
+                Transaction transaction = new Transaction(System.currentTimeMillis(), operation.getTransactionType(),
+                        amount, operation.getCounterparty(), account.getBalance());
 
-            System.out.println("Transfer successful.");
-            System.out.println("Your new balance: ₹" + fromAccount.getBalance());
+                PreparedStatement ps = con.prepareStatement(JdbcStorage.INSERT_TRANSACTION_SQL);
+                JdbcStorage.bindTransaction(ps, accountNo, transaction);
+                ps.executeUpdate();
+                ps.close();
+                con.commit();
 
-        } catch (SQLException e) {
-            try {
+                account.addTransaction(transaction);
+                return transaction;
+            } catch (Exception e) {
                 con.rollback();
+                // Another instance may have moved the balance, show the user the real figure
+                try {
+                    JdbcStorage.refreshAccount(con, account, true);
+                } catch (SQLException refreshFailure) {
+                    System.out.println("Could not refresh account " + accountNo + ": " + refreshFailure.getMessage());
+                }
+                throw e;
+            } finally {
                 con.setAutoCommit(true);
-            } catch (SQLException ex) {
-                System.out.println("Error during rollback: " + ex.getMessage());
             }
+        } finally {
+            accountLocks.unlock(accountNo);
+        }
+    }
 
-            if (e.getMessage().contains("Balance cannot be negative")) {
-                System.out.println("Transfer failed: Balance cannot be negative.");
-            } else {
-                System.out.println("Error during transfer: " + e.getMessage());
+    // OPTIMISTIC CONCURRENCY
+    // Every write of an accounts row is conditioned on the version we last saw and bumps it. Zero
+    // affected rows means another writer (usually another Bank instance) got there first: count it,
+    // reload the row, and retry after a jittered exponential backoff, up to MAX_VERSION_ATTEMPTS.
+    // Callers hold the account's lock for onVersionConflict and release it around backOff: a stripe is
+    // shared by many accounts, one contended account must not stall the rest for the whole backoff.
+    private static void onVersionConflict(Account account, int attempt) throws SQLException {
+        versionConflicts.incrementAndGet();
+        account.recordVersionConflict();
+        if (attempt >= MAX_VERSION_ATTEMPTS) {
+            versionRetriesExhausted.incrementAndGet();
+            throw new SQLException("Account " + account.getAccountNo() + " is busy, please try again.");
+        }
+        refreshAccount(account);
+    }
+
+    private static void backOff(Account account, int attempt) throws SQLException {
+        try {
+            long capMs = Math.min(VERSION_BACKOFF_MAX_MS, VERSION_BACKOFF_BASE_MS << (attempt - 1));
+            Thread.sleep(ThreadLocalRandom.current().nextLong(capMs + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying account " + account.getAccountNo() + ".");
+        }
+    }
+
+    // Copy the stored row into memory. In single-writer and journal modes the in-memory balance may
+    // be ahead of the table (postings not flushed yet), so only the version and flags are taken.
+    static void refreshAccount(Account account) throws SQLException {
+        storage.refreshAccount(account, shards == null && journal == null);
+    }
+
+    private static void refreshQuietly(Account account) {
+        try {
+            refreshAccount(account);
+        } catch (SQLException e) {
+            System.out.println("Could not refresh account " + account.getAccountNo() + ": " + e.getMessage());
+        }
+    }
+
+    static String versionConflictReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Version conflicts: ").append(versionConflicts.get()).append(" total, ")
+                .append(versionRetriesExhausted.get()).append(" gave up after ").append(MAX_VERSION_ATTEMPTS)
+                .append(" attempts");
+        List<Account> hottest = new ArrayList<>();
+        for (Account account : accountsByNo.values()) {
+            if (account.getVersionConflicts() > 0) {
+                hottest.add(account);
             }
-        } catch (IllegalArgumentException e) {
-            try {
-                con.rollback();
-                con.setAutoCommit(true);
-            } catch (SQLException ex) {
-                System.out.println("Error during rollback: " + ex.getMessage());
+        }
+        hottest.sort((a, b) -> Integer.compare(b.getVersionConflicts(), a.getVersionConflicts()));
+        for (int i = 0; i < Math.min(5, hottest.size()); i++) {
+            Account account = hottest.get(i);
+            report.append("\n  Account ").append(account.getAccountNo()).append(": ")
+                    .append(account.getVersionConflicts()).append(" conflicts");
+        }
+        return report.toString();
+    }
+
+    // Card and loan flags go through the same version check as postings. On a conflict the row is
+    // reloaded and the change applied again on top of it.
+    static void updateAccountFlags(Account account, Consumer<Account> change) throws SQLException {
+        int accountNo = account.getAccountNo();
+        accountLocks.lock(accountNo);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                boolean hadDebitCard = account.hasDebitCard();
+                boolean hadCreditCard = account.hasCreditCard();
+                boolean hadLoan = account.hasLoan();
+                long expectedVersion = account.getVersion();
+                change.accept(account);
+
+                boolean written;
+                try {
+                    written = storage.updateFlags(account, expectedVersion);
+                } catch (SQLException e) {
+                    account.setHasDebitCard(hadDebitCard);
+                    account.setHasCreditCard(hadCreditCard);
+                    account.setHasLoan(hadLoan);
+                    throw e;
+                }
+                if (written) {
+                    account.setVersion(expectedVersion + 1);
+                    return;
+                }
+                account.setHasDebitCard(hadDebitCard);
+                account.setHasCreditCard(hadCreditCard);
+                account.setHasLoan(hadLoan);
+                onVersionConflict(account, attempt);
+                accountLocks.unlock(accountNo);
+                try {
+                    backOff(account, attempt);
+                } finally {
+                    accountLocks.lock(accountNo);
+                }
             }
-            System.out.println("Transfer failed: " + e.getMessage());
+        } finally {
+            accountLocks.unlock(accountNo);
+        }
+    }
+
+    // Wait for a shard command and rethrow its failure as the caller would have seen it
+    private static Transaction awaitShard(CompletableFuture<Transaction> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // POST A TRANSFER
+    // Both accounts are locked (in stripe order, see AccountLocks) and the whole transfer is one
+    // storage call (transfer_funds with JDBC): debit, credit, version bumps and both ledger rows commit together.
+    static void postTransfer(Account fromAccount, Account toAccount, long amount) throws Exception {
+        fromAccount.ensureHydrated(); // before the write, see Account.ensureHydrated
+        toAccount.ensureHydrated();
+        if (shards != null) {
+            awaitShard(shards.transfer(fromAccount, toAccount, amount));
+            return;
+        }
+        if (journal != null) {
+            postTransferJournaled(fromAccount, toAccount, amount);
+            return;
+        }
+        // Relative mode lets the procedure check the balance only, the default mode also checks versions
+        executeTransfer(fromAccount, toAccount, amount, !relativeUpdates);
+    }
+
+    private static void executeTransfer(Account fromAccount, Account toAccount, long amount,
+                                        boolean checkVersions) throws Exception {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        int fromAccountNo = fromAccount.getAccountNo();
+        int toAccountNo = toAccount.getAccountNo();
+
+        accountLocks.lockPair(fromAccountNo, toAccountNo);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                // Our copy is current unless another instance wrote the row, no need to ask the database
+                if (checkVersions && fromAccount.getBalance() < amount) {
+                    throw new IllegalArgumentException("Insufficient balance.");
+                }
+                long now = System.currentTimeMillis();
+                int status = storage.transfer(fromAccount, toAccount, amount, now, checkVersions);
+                if (status == BankStorage.TRANSFER_OK) {
+                    fromAccount.addTransaction(new Transaction(now, Transaction.Type.TRANSFER_OUT,
+                            amount, toAccountNo, fromAccount.getBalance()));
+                    toAccount.addTransaction(new Transaction(now, Transaction.Type.TRANSFER_IN,
+                            amount, fromAccountNo, toAccount.getBalance()));
+                    return;
+                }
+                if (status == BankStorage.TRANSFER_INSUFFICIENT) {
+                    // Another instance may have moved the balance, show the user the real figure
+                    refreshQuietly(fromAccount);
+                    throw new IllegalArgumentException("Insufficient balance.");
+                }
+                if (status == BankStorage.TRANSFER_TO_CONFLICT && !checkVersions) {
+                    throw new SQLException("Account " + toAccountNo + " not found in database.");
+                }
+                Account conflicted = status == BankStorage.TRANSFER_TO_CONFLICT ? toAccount : fromAccount;
+                onVersionConflict(conflicted, attempt);
+                accountLocks.unlockPair(fromAccountNo, toAccountNo);
+                try {
+                    backOff(conflicted, attempt);
+                } finally {
+                    accountLocks.lockPair(fromAccountNo, toAccountNo);
+                }
+            }
+        } finally {
+            accountLocks.unlockPair(fromAccountNo, toAccountNo);
         }
     }
 
     // MODIFIED CHECK BALANCE (with User parameter)
-    private static void checkBalance(User account) {
+    private static void checkBalance(Account account) {
         System.out.println("\n=== ACCOUNT BALANCE ===");
-        System.out.println("Current balance: ₹" + account.getBalance());
+        System.out.println("Current balance: ₹" + Money.format(account.getBalance()));
     }
 
     // MODIFIED CHECK DETAILS (with User parameters)
-    private static void checkDetails(User user, User account) {
+    private static void checkDetails(User user, Account account) {
         System.out.println("\n=== ACCOUNT DETAILS ===");
         System.out.println("User ID: " + user.getUserId());
         System.out.println("Account No: " + account.getAccountNo());
@@ -799,10 +1294,10 @@ class Bank {
         System.out.println("Mobile: " + user.getMobileNumber());
         System.out.println("Email: " + user.getEmail());
         System.out.println("Account Type: " + account.getAccountType());
-        System.out.println("Balance: ₹" + account.getBalance());
+        System.out.println("Balance: ₹" + Money.format(account.getBalance()));
 
-        System.out.println("\nTRANSACTION HISTORY (Last 10):");
-        for (String transaction : account.getTransactionHistory()) {
+        System.out.println("\nTRANSACTION HISTORY (Last " + account.getHistoryCapacity() + "):");
+        for (Transaction transaction : account.getTransactionHistory()) {
             System.out.println(transaction);
         }
 
@@ -822,177 +1317,140 @@ class Bank {
         }
     }
 
-    // TO INITIALIZE DATABASE AND CREATE TABLES
-    private static void initializeDatabase() throws SQLException {
-        con = DriverManager.getConnection(dburl, dbuser, dbpass);
-        Statement statement = con.createStatement();
-
-        // Create users table (personal information)
-        String sql = "CREATE TABLE IF NOT EXISTS users (" +
-                "userId INTEGER PRIMARY KEY, " +
-                "firstName TEXT, " +
-                "lastName TEXT, " +
-                "dob TEXT, " +
-                "mobileNumber TEXT UNIQUE, " +
-                "email TEXT, " +
-                "aadhaar TEXT UNIQUE, " +
-                "pan TEXT UNIQUE, " +
-                "password TEXT ," +
-                "mpin TEXT)";
-        statement.execute(sql);
-
-        // Create accounts table (account-specific information)
-        sql = "CREATE TABLE IF NOT EXISTS accounts (" +
-                "accountNo INTEGER PRIMARY KEY, " +
-                "userId INTEGER, " +
-                "accountType TEXT, " +
-                "balance REAL, " +
-                "hasCreditCard INTEGER, " +
-                "hasDebitCard INTEGER, " +
-                "hasLoan INTEGER, " +
-                "mpin TEXT, " +
-                "FOREIGN KEY (userId) REFERENCES users(userId) ON DELETE CASCADE)";
-        statement.execute(sql);
-
-        // Create transactions table (child table)
-        sql = "CREATE TABLE IF NOT EXISTS transactions (" +
-                "accountNo INTEGER, " +
-                "transaction TEXT, " +
-                "FOREIGN KEY (accountNo) REFERENCES accounts(accountNo) ON DELETE CASCADE)";
-        statement.execute(sql);
-
-        // Create schemes table (child table)
-        sql = "CREATE TABLE IF NOT EXISTS schemes (" +
-                "accountNo INTEGER, " +
-                "scheme TEXT, " +
-                "FOREIGN KEY (accountNo) REFERENCES accounts(accountNo) ON DELETE CASCADE)";
-        statement.execute(sql);
-
-        statement.close();
-    }
-
-    // LOAD ACCOUNTS FROM DATABASE
-    private static void loadAccountsFromDatabase() throws Exception {
-        Statement statement = con.createStatement();
-
-        // Load users
-        ResultSet rs = statement.executeQuery("SELECT * FROM users");
-        while (rs.next()) {
-            int userId = rs.getInt("userId");
-            String firstName = rs.getString("firstName");
-            String lastName = rs.getString("lastName");
-            String dobStr = rs.getString("dob");
-            String mobileNumber = rs.getString("mobileNumber");
-            String email = rs.getString("email");
-            String aadhaar = rs.getString("aadhaar");
-            String pan = rs.getString("pan");
-            String password = rs.getString("password");
-            String mpin = rs.getString("mpin");
-
-            LocalDate dob = LocalDate.parse(dobStr);
-
-            User user = new User(userId, 0, firstName, lastName, dob, 0, mobileNumber, email, aadhaar, pan, "", password,mpin);
-            users.put(userId, user);
-
-            String fullName = (firstName + " " + lastName).toLowerCase();
-            if (!nameToUsers.containsKey(fullName)) {
-                nameToUsers.put(fullName, new ArrayList<>());
-            }
-            nameToUsers.get(fullName).add(userId);
-
-            if (userId >= nextUserId) nextUserId = userId + 1;
-        }
-
-        // Load accounts
-        rs = statement.executeQuery("SELECT * FROM accounts");
-        while (rs.next()) {
-            int accountNo = rs.getInt("accountNo");
-            int userId = rs.getInt("userId");
-            String accountType = rs.getString("accountType");
-            double balance = rs.getDouble("balance");
-            boolean hasCreditCard = rs.getInt("hasCreditCard") == 1;
-            boolean hasDebitCard = rs.getInt("hasDebitCard") == 1;
-            boolean hasLoan = rs.getInt("hasLoan") == 1;
-            String mpin = rs.getString("mpin");
-
-            User user = new User(userId, accountNo, "", "", LocalDate.now(), balance, "", "", "", "", accountType, "",mpin);
-            user.setHasCreditCard(hasCreditCard);
-            user.setHasDebitCard(hasDebitCard);
-            user.setHasLoan(hasLoan);
-            user.setMpin(mpin);
-
-            // Load transactions
-            PreparedStatement ps = con.prepareStatement("SELECT transaction FROM transactions WHERE accountNo = ?");
-            ps.setInt(1, accountNo);
-            ResultSet rsTransactions = ps.executeQuery();
-            while (rsTransactions.next()) {
-                user.addTransaction(rsTransactions.getString("transaction"));
-            }
-            rsTransactions.close();
-            ps.close();
-
-            // Load schemes
-            ps = con.prepareStatement("SELECT scheme FROM schemes WHERE accountNo = ?");
-            ps.setInt(1, accountNo);
-            ResultSet rsSchemes = ps.executeQuery();
-            while (rsSchemes.next()) {
-                user.addScheme(rsSchemes.getString("scheme"));
-            }
-            rsSchemes.close();
-            ps.close();
+    // TO INITIALIZE STORAGE (the JDBC backend also creates or migrates the tables)
+    private static void initializeStorage() throws SQLException {
+        if ("memory".equals(storageBackend)) {
+            storage = new InMemoryStorage();
+        } else {
+            JdbcStorage jdbc = new JdbcStorage(dburl, dbuser, dbpass, poolMinSize, poolMaxSize, statementCacheSize,
+                    loadPartitions);
+            pool = jdbc.getPool();
+            pool.setTraceBorrowSites(traceConnectionLeaks);
+            storage = jdbc;
+        }
+        storage.initialize();
+    }
 
-            // Add to userAccounts map
-            if (!userAccounts.containsKey(userId)) {
-                userAccounts.put(userId, new ArrayList<>());
-            }
-            userAccounts.get(userId).add(user);
+    // LOAD ACCOUNTS FROM STORAGE
+    private static void loadAccountsFromStorage() throws Exception {
+        long loadStart = System.nanoTime();
+        System.out.println("Loading bank data...");
+        storage.loadAll(!lazyLoad);
+        buildNameIndexes();
+        System.out.println("Startup load finished in " + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+    }
 
-            accountNoToUserId.put(accountNo, userId);
+    static void saveSnapshot() {
+        try {
+            BankSnapshot.write(Paths.get(snapshotPath));
+        } catch (IOException e) {
+            System.out.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
 
-            if (accountNo >= nextAccountNo) nextAccountNo = accountNo + 1;
+    static void buildNameIndexes() {
+        // Build name index
+        long phaseStart = System.nanoTime();
+        nameIndex.clear();
+        for (User user : users.values()) {
+            nameIndex.add(user.getFirstName() + " " + user.getLastName(), user.getUserId());
         }
+        reportPhase("name index", users.size(), phaseStart);
 
-        // Build name BST
-        nameBST = null;
+        // Build fuzzy search index
+        phaseStart = System.nanoTime();
+        searchIndex.clear();
         for (User user : users.values()) {
-            String fullName = (user.getFirstName() + " " + user.getLastName()).toLowerCase();
-            nameBST = insertIntoBST(nameBST, fullName, user.getUserId());
+            indexForSearch(user);
         }
+        reportPhase("search index", users.size(), phaseStart);
+    }
+
+    // Put a loaded user into the maps and identifier indexes (the name indexes are built afterwards)
+    static void registerUser(User user) {
+        users.put(user.getUserId(), user);
+        indexIdentifiers(user);
+        if (user.getUserId() >= nextUserId) nextUserId = user.getUserId() + 1;
     }
 
-    // TO INSERT IN BST
-    private static NameBSTNode insertIntoBST(NameBSTNode node, String name, int userId) {
-        if (node == null) {
-            return new NameBSTNode(name, userId);
+    static void registerAccount(Account account) {
+        int accountNo = account.getAccountNo();
+        accountsByNo.put(accountNo, account);
+        // Add to userAccounts map
+        userAccounts.computeIfAbsent(account.getUserId(), k -> new CopyOnWriteArrayList<>()).add(account);
+        accountNoToUserId.put(accountNo, account.getUserId());
+        if (accountNo >= nextAccountNo) nextAccountNo = accountNo + 1;
+    }
+
+    static void forgetAccount(int accountNo) {
+        Integer userId = accountNoToUserId.remove(accountNo);
+        if (userId != null) {
+            List<Account> accounts = userAccounts.get(userId);
+            if (accounts != null) {
+                accounts.removeIf(acc -> acc.getAccountNo() == accountNo);
+                if (accounts.isEmpty()) {
+                    userAccounts.remove(userId);
+                }
+            }
         }
+        accountsByNo.remove(accountNo);
+    }
 
-        int comparison = name.compareTo(node.name);
-        if (comparison < 0) {
-            node.left = insertIntoBST(node.left, name, userId);
-        } else if (comparison > 0) {
-            node.right = insertIntoBST(node.right, name, userId);
-        } else {
-            node.right = insertIntoBST(node.right, name, userId);
+    // LAZY LOAD: read one account's history and schemes, returns false if storage could not be read
+    static boolean hydrateAccount(Account account) {
+        try {
+            storage.loadHistory(account);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Error loading account history: " + e.getMessage());
+            return false;
         }
-        return node;
     }
 
-    // SEARCH FROM BST
-    private static void searchInBST(NameBSTNode node, String name, List<Integer> userIds) {
-        if (node == null) {
+    // Hydrate every account not touched yet in one bulk pass (used before a full export)
+    // The rows go into scratch copies first and each account takes its copy under its history lock, so
+    // sessions posting meanwhile (they hydrate their account before writing) neither lose nor double a row.
+    private static void hydrateRemainingAccounts() {
+        HashMap<Integer, Account> pending = new HashMap<>();
+        for (Account account : accountsByNo.values()) {
+            if (!account.isHydrated()) {
+                pending.put(account.getAccountNo(), new Account(account.getAccountNo(), account.getOwner(),
+                        account.getAccountType(), 0, account.getMpin()));
+            }
+        }
+        if (pending.isEmpty()) {
             return;
         }
-
-        int comparison = name.compareTo(node.name);
-        if (comparison == 0) {
-            userIds.add(node.userId);
-            searchInBST(node.left, name, userIds);
-            searchInBST(node.right, name, userIds);
-        } else if (comparison < 0) {
-            searchInBST(node.left, name, userIds);
-        } else {
-            searchInBST(node.right, name, userIds);
+        try {
+            storage.loadHistory(pending);
+        } catch (SQLException e) {
+            System.out.println("Error loading account history: " + e.getMessage());
+            return;
         }
+        for (Account loaded : pending.values()) {
+            Account account = accountsByNo.get(loaded.getAccountNo());
+            if (account != null) {
+                account.hydrateFrom(loaded);
+            }
+        }
+    }
+
+    // Print the row count and time taken by one startup phase
+    static void reportPhase(String phase, int rows, long startNanos) {
+        long ms = (System.nanoTime() - startNanos) / 1_000_000;
+        System.out.println("  " + phase + ": " + rows + " rows in " + ms + " ms");
+    }
+
+    // Add a user's name, email and mobile to the fuzzy search index
+    static void indexForSearch(User user) {
+        searchIndex.add(user.getUserId(), user.getFirstName(), user.getLastName(), user.getEmail(), user.getMobileNumber());
+    }
+
+    // Register a user's mobile, Aadhaar and PAN in the uniqueness indexes
+    static void indexIdentifiers(User user) {
+        if (user.getMobileNumber() != null) mobileToUserId.put(user.getMobileNumber(), user.getUserId());
+        if (user.getAadhaar() != null) aadhaarToUserId.put(user.getAadhaar(), user.getUserId());
+        if (user.getPan() != null) panToUserId.put(user.getPan(), user.getUserId());
     }
 
     // ADD NEW USER
@@ -1011,8 +1469,9 @@ class Bank {
             String dobStr = scanner.nextLine();
             try {
                 dob = LocalDate.parse(dobStr);
-                if (dob.isAfter(LocalDate.now().minusYears(18))) {
-                    System.out.println("User must be at least 18 years old.");
+                String problem = BankService.dobProblem(dob);
+                if (problem != null) {
+                    System.out.println(problem);
                     dob = null;
                 }
             } catch (Exception e) {
@@ -1029,112 +1488,44 @@ class Bank {
         while (true) {
             System.out.print("Mobile number (10 digits): ");
             mobileNumber = scanner.nextLine();
-            if (mobileNumber.length() == 10) {
-                // Check if mobile number already exists
-                boolean exists = false;
-                for (User user : users.values()) {
-                    if (user.getMobileNumber().equals(mobileNumber)) {
-                        exists = true;
-                        break;
-                    }
-                }
-                if (exists) {
-                    System.out.println("Mobile number already registered. Please use a different number.");
-                } else {
-                    break;
-                }
-            } else {
-                System.out.println("Invalid mobile number. Must be 10 digits.");
+            String problem = BankService.mobileProblem(mobileNumber);
+            if (problem == null) {
+                break;
             }
+            System.out.println(problem);
         }
 
         String email;
         while (true) {
             System.out.print("Email: ");
             email = scanner.nextLine();
-            if (isValidEmail(email)) {
+            String problem = BankService.emailProblem(email);
+            if (problem == null) {
                 break;
             }
-            System.out.println("Invalid email format. Please enter a valid email address.");
+            System.out.println(problem);
         }
 
         String aadhaar;
         while (true) {
             System.out.print("Aadhaar Card Number (12 digits): ");
             aadhaar = scanner.nextLine();
-            if (aadhaar.length() == 12) {
-                // Check if Aadhaar already exists
-                boolean exists = false;
-                for (User user : users.values()) {
-                    if (user.getAadhaar().equals(aadhaar)) {
-                        exists = true;
-                        break;
-                    }
-                }
-                if (exists) {
-                    System.out.println("Aadhaar number already registered. Please use a different Aadhaar.");
-                } else {
-                    break;
-                }
-            } else {
-                System.out.println("Invalid Aadhaar number. Must be 12 digits.");
+            String problem = BankService.aadhaarProblem(aadhaar);
+            if (problem == null) {
+                break;
             }
+            System.out.println(problem);
         }
 
         String pan;
         while (true) {
             System.out.print("PAN Card Number (10 characters, format: ABCDE1234F): ");
-            pan = scanner.nextLine();
-
-            if (pan.length() != 10) {
-                System.out.println("PAN must be exactly 10 characters.");
-                continue;
-            }
-
-            boolean valid = true;
-            for (int i = 0; i < 5; i++) {
-                char c = pan.charAt(i);
-                if (!Character.isLetter(c)) {
-                    valid = false;
-                    break;
-                }
-            }
-
-            if (valid) {
-                for (int i = 5; i < 9; i++) {
-                    char c = pan.charAt(i);
-                    if (!Character.isDigit(c)) {
-                        valid = false;
-                        break;
-                    }
-                }
-            }
-
-            if (valid) {
-                char lastChar = pan.charAt(9);
-                if (!Character.isLetter(lastChar)) {
-                    valid = false;
-                }
-            }
-
-            if (valid) {
-                pan = pan.toUpperCase();
-                // Check if PAN already exists
-                boolean exists = false;
-                for (User user : users.values()) {
-                    if (user.getPan().equals(pan)) {
-                        exists = true;
-                        break;
-                    }
-                }
-                if (exists) {
-                    System.out.println("PAN number already registered. Please use a different PAN.");
-                } else {
-                    break;
-                }
-            } else {
-                System.out.println("Invalid PAN format. Must be in format: ABCDE1234F (5 letters, 4 numbers, 1 letter)");
+            pan = scanner.nextLine().toUpperCase();
+            String problem = BankService.panProblem(pan);
+            if (problem == null) {
+                break;
             }
+            System.out.println(problem);
         }
 
         String password;
@@ -1150,38 +1541,11 @@ class Bank {
             System.out.println("Passwords do not match. Please try again.");
         }
 
-        int userId = nextUserId++;
-        String mpin = "";
-        User user = new User(userId, 0, firstName, lastName, dob, 0, mobileNumber, email, aadhaar, pan, "", password,mpin);
-
         try {
-            // Insert into users table
-            PreparedStatement ps = con.prepareStatement(
-                    "INSERT INTO users (userId, firstName, lastName, dob, mobileNumber, email, aadhaar, pan, password) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
-            ps.setInt(1, userId);
-            ps.setString(2, firstName);
-            ps.setString(3, lastName);
-            ps.setString(4, dob.toString());
-            ps.setString(5, mobileNumber);
-            ps.setString(6, email);
-            ps.setString(7, aadhaar);
-            ps.setString(8, pan);
-            ps.setString(9, password);
-            ps.executeUpdate();
-            ps.close();
-
-            users.put(userId, user);
-
-            String fullName = (firstName + " " + lastName).toLowerCase();
-            if (!nameToUsers.containsKey(fullName)) {
-                nameToUsers.put(fullName, new ArrayList<>());
-            }
-            nameToUsers.get(fullName).add(userId);
-
-            nameBST = insertIntoBST(nameBST, fullName, userId);
+            User user = BankService.createUser(firstName, lastName, dob, mobileNumber, email, aadhaar, pan, password);
 
             System.out.println("\nUser created successfully!");
-            System.out.println("User ID: " + userId);
+            System.out.println("User ID: " + user.getUserId());
 
             // Ask if user wants to create an account now
             System.out.print("Do you want to create an account for this user now? (yes/no): ");
@@ -1190,8 +1554,10 @@ class Bank {
             if (createAccount.equals("yes")) {
                 addAccountToUser(user);
             }
+        } catch (IllegalArgumentException e) {
+            // Another session took one of the identifiers while this one was typing
+            System.out.println("Error creating user: " + e.getMessage());
         } catch (SQLException e) {
-            nextUserId--;
             System.out.println("Error creating user: " + e.getMessage());
         }
     }
@@ -1259,55 +1625,29 @@ class Bank {
         }
 
         System.out.print("Enter Initial Balance: ₹");
-        double bal = 0;
+        long bal = 0;
         boolean validInput = false;
 
         while (!validInput) {
             try {
                 String input = scanner.nextLine();
-                bal = Double.parseDouble(input);
+                bal = Money.parse(input);
 
                 if (bal < 0) {
                     System.out.println("Error: Initial balance cannot be negative. Please try again.");
                 } else {
                     validInput = true;
                 }
-            } catch (NumberFormatException e) {
-                System.out.println("Invalid input. Please enter a numeric value.");
+            } catch (NumberFormatException | ArithmeticException e) {
+                System.out.println("Invalid input. Please enter an amount like 1500 or 1500.50.");
             }
         }
 
-        int accountNo = nextAccountNo++;
-
-        User account = new User(user.getUserId(), accountNo, user.getFirstName(), user.getLastName(),
-                user.getDob(), bal, user.getMobileNumber(), user.getEmail(),
-                user.getAadhaar(), user.getPan(), accountType, user.getPassword(),mpin);
-
         try {
-            // Insert into accounts table
-            PreparedStatement ps = con.prepareStatement(
-                    "INSERT INTO accounts VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-            ps.setInt(1, accountNo);
-            ps.setInt(2, user.getUserId());
-            ps.setString(3, accountType);
-            ps.setDouble(4, bal);
-            ps.setInt(5, 0); // hasCreditCard
-            ps.setInt(6, 0); // hasDebitCard
-            ps.setInt(7, 0); // hasLoan
-            ps.setString(8, mpin);
-            ps.executeUpdate();
-            ps.close();
-
-            // Add to userAccounts map
-            if (!userAccounts.containsKey(user.getUserId())) {
-                userAccounts.put(user.getUserId(), new ArrayList<>());
-            }
-            userAccounts.get(user.getUserId()).add(account);
-
-            accountNoToUserId.put(accountNo, user.getUserId());
+            Account account = BankService.openAccount(user.getUserId(), accountType, bal, mpin);
 
             System.out.println("\nAccount created successfully!");
-            System.out.println("Account No: " + accountNo);
+            System.out.println("Account No: " + account.getAccountNo());
             System.out.println("Account Type: " + accountType);
             System.out.println("MPIN: " + mpin + " (Please remember this for login)");
 
@@ -1316,7 +1656,6 @@ class Bank {
                 System.out.println("\nNote: As a Savings account holder, you'll have access to mutual fund investments (Coming Soon).");
             }
         } catch (SQLException e) {
-            nextAccountNo--;
             if (e.getMessage().contains("Balance cannot be negative")) {
                 System.out.println("Account creation failed: Balance cannot be negative.");
             } else {
@@ -1339,7 +1678,8 @@ class Bank {
             System.out.println("7) Approve loan");
             System.out.println("8) Delete account");
             System.out.println("9) View Mutual Fund Options (Savings Accounts)");
-            System.out.println("10) Back to main menu");
+            System.out.println("10) Quick search (name, email or mobile)");
+            System.out.println("11) Back to main menu");
             System.out.print("Enter choice: ");
 
             int choice = 0;
@@ -1379,6 +1719,9 @@ class Bank {
                     viewMutualFundOptions();
                     break;
                 case 10:
+                    quickSearch();
+                    break;
+                case 11:
                     back = true;
                     break;
                 default:
@@ -1407,58 +1750,39 @@ class Bank {
         int accountNo = scanner.nextInt();
         scanner.nextLine();
 
-        if (!accountNoToUserId.containsKey(accountNo)) {
-            System.out.println("Account not found.");
-            return;
-        }
-
-        int userId = accountNoToUserId.get(accountNo);
-        User user = users.get(userId);
-
-        // Find the account
-        User account = null;
-        List<User> accounts = userAccounts.get(userId);
-        for (User acc : accounts) {
-            if (acc.getAccountNo() == accountNo) {
-                account = acc;
-                break;
-            }
-        }
-
+        Account account = accountsByNo.get(accountNo);
         if (account == null) {
             System.out.println("Account not found.");
             return;
         }
 
-        displayAccountDetails(user, account);
+        displayAccountDetails(users.get(account.getUserId()), account);
     }
 
     private static void searchByName() {
         System.out.print("Enter First Name: ");
         String firstName = scanner.nextLine();
-        System.out.print("Enter Last Name: ");
-        String lastName = scanner.nextLine();
-
-        String fullName = (firstName + " " + lastName).toLowerCase();
-        List<Integer> userIds = new ArrayList<>();
-        searchInBST(nameBST, fullName, userIds);
+        System.out.print("Enter Last Name (leave blank to match first name only): ");
+        String lastName = scanner.nextLine().trim();
 
-        if (userIds.isEmpty()) {
+        // No exact match shows names that start with what was typed
+        List<User> matches = BankService.findByName(firstName, lastName);
+        if (matches.isEmpty()) {
             System.out.println("No users found with that name.");
             return;
         }
 
-        for (int userId : userIds) {
-            User user = users.get(userId);
+        for (User user : matches) {
+            int userId = user.getUserId();
             System.out.println("\nUSER: " + user.getFirstName() + " " + user.getLastName());
             System.out.println("User ID: " + user.getUserId());
             System.out.println("Mobile: " + user.getMobileNumber());
             System.out.println("Email: " + user.getEmail());
 
-            List<User> accounts = userAccounts.get(userId);
+            List<Account> accounts = userAccounts.get(userId);
             if (accounts != null && !accounts.isEmpty()) {
                 System.out.println("Accounts:");
-                for (User account : accounts) {
+                for (Account account : accounts) {
                     displayAccountDetails(user, account);
                     System.out.println("---------------------");
                 }
@@ -1468,6 +1792,29 @@ class Bank {
         }
     }
 
+    private static void quickSearch() {
+        System.out.print("Enter part of a name, email or mobile number: ");
+        String query = scanner.nextLine().trim();
+        if (query.isEmpty()) {
+            System.out.println("Search text cannot be empty.");
+            return;
+        }
+
+        List<User> matches = BankService.search(query, 10);
+        if (matches.isEmpty()) {
+            System.out.println("No matching users found.");
+            return;
+        }
+
+        System.out.println("\nBEST MATCHES");
+        for (User user : matches) {
+            System.out.println("User ID: " + user.getUserId() +
+                    ", Name: " + user.getFirstName() + " " + user.getLastName() +
+                    ", Mobile: " + user.getMobileNumber() +
+                    ", Email: " + user.getEmail());
+        }
+    }
+
     private static void viewAllUsers() {
         System.out.println("\nALL USERS");
         for (User user : users.values()) {
@@ -1482,13 +1829,13 @@ class Bank {
         System.out.println("\nALL ACCOUNTS");
         for (Integer userId : userAccounts.keySet()) {
             User user = users.get(userId);
-            List<User> accounts = userAccounts.get(userId);
-            for (User account : accounts) {
+            List<Account> accounts = userAccounts.get(userId);
+            for (Account account : accounts) {
                 System.out.println("User ID: " + userId +
                         ", Name: " + user.getFirstName() + " " + user.getLastName() +
                         ", Account No: " + account.getAccountNo() +
                         ", Type: " + account.getAccountType() +
-                        ", Balance: ₹" + account.getBalance());
+                        ", Balance: ₹" + Money.format(account.getBalance()));
             }
         }
     }
@@ -1498,21 +1845,7 @@ class Bank {
         int accountNo = scanner.nextInt();
         scanner.nextLine();
 
-        if (!accountNoToUserId.containsKey(accountNo)) {
-            System.out.println("Account not found.");
-            return;
-        }
-
-        int userId = accountNoToUserId.get(accountNo);
-        List<User> accounts = userAccounts.get(userId);
-        User account = null;
-        for (User acc : accounts) {
-            if (acc.getAccountNo() == accountNo) {
-                account = acc;
-                break;
-            }
-        }
-
+        Account account = accountsByNo.get(accountNo);
         if (account == null) {
             System.out.println("Account not found.");
             return;
@@ -1521,14 +1854,11 @@ class Bank {
         System.out.print("Enter scheme name: ");
         String scheme = scanner.nextLine();
 
+        account.ensureHydrated(); // before the scheme is inserted, see Account.ensureHydrated
         account.addScheme(scheme);
 
         try {
-            PreparedStatement ps = con.prepareStatement("INSERT INTO schemes VALUES (?, ?)");
-            ps.setInt(1, accountNo);
-            ps.setString(2, scheme);
-            ps.executeUpdate();
-            ps.close();
+            storage.insertScheme(accountNo, scheme);
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
@@ -1541,21 +1871,7 @@ class Bank {
         int accountNo = scanner.nextInt();
         scanner.nextLine();
 
-        if (!accountNoToUserId.containsKey(accountNo)) {
-            System.out.println("Account not found.");
-            return;
-        }
-
-        int userId = accountNoToUserId.get(accountNo);
-        List<User> accounts = userAccounts.get(userId);
-        User account = null;
-        for (User acc : accounts) {
-            if (acc.getAccountNo() == accountNo) {
-                account = acc;
-                break;
-            }
-        }
-
+        Account account = accountsByNo.get(accountNo);
         if (account == null) {
             System.out.println("Account not found.");
             return;
@@ -1567,31 +1883,16 @@ class Bank {
         int cardChoice = scanner.nextInt();
         scanner.nextLine();
 
-        boolean success = false;
-        if (cardChoice == 1) {
-            account.setHasDebitCard(true);
-            System.out.println("Debit card issued successfully.");
-            success = true;
-        } else if (cardChoice == 2) {
-            account.setHasCreditCard(true);
-            System.out.println("Credit card issued successfully.");
-            success = true;
-        } else {
+        if (cardChoice != 1 && cardChoice != 2) {
             System.out.println("Invalid choice.");
+            return;
         }
 
-        if (success) {
-            try {
-                PreparedStatement ps = con.prepareStatement(
-                        "UPDATE accounts SET hasDebitCard = ?, hasCreditCard = ? WHERE accountNo = ?");
-                ps.setInt(1, account.hasDebitCard() ? 1 : 0);
-                ps.setInt(2, account.hasCreditCard() ? 1 : 0);
-                ps.setInt(3, accountNo);
-                ps.executeUpdate();
-                ps.close();
-            } catch (SQLException e) {
-                System.out.println(e.getMessage());
-            }
+        try {
+            BankService.issueCard(accountNo, cardChoice == 2);
+            System.out.println((cardChoice == 2 ? "Credit" : "Debit") + " card issued successfully.");
+        } catch (IllegalArgumentException | SQLException e) {
+            System.out.println(e.getMessage());
         }
     }
 
@@ -1600,21 +1901,7 @@ class Bank {
         int accountNo = scanner.nextInt();
         scanner.nextLine();
 
-        if (!accountNoToUserId.containsKey(accountNo)) {
-            System.out.println("Account not found.");
-            return;
-        }
-
-        int userId = accountNoToUserId.get(accountNo);
-        List<User> accounts = userAccounts.get(userId);
-        User account = null;
-        for (User acc : accounts) {
-            if (acc.getAccountNo() == accountNo) {
-                account = acc;
-                break;
-            }
-        }
-
+        Account account = accountsByNo.get(accountNo);
         if (account == null) {
             System.out.println("Account not found.");
             return;
@@ -1626,35 +1913,28 @@ class Bank {
         }
 
         System.out.print("Enter loan amount: ₹");
-        double amount = scanner.nextDouble();
-        scanner.nextLine();
+        long amount;
+        try {
+            amount = Money.parse(scanner.nextLine());
+        } catch (NumberFormatException | ArithmeticException e) {
+            System.out.println("Invalid amount.");
+            return;
+        }
 
         System.out.print("Enter loan type: ");
         String loanType = scanner.nextLine();
 
-        account.setHasLoan(true);
-        account.addScheme(loanType + " Loan: ₹" + amount);
-
         try {
-            PreparedStatement ps = con.prepareStatement("UPDATE accounts SET hasLoan = ? WHERE accountNo = ?");
-            ps.setInt(1, 1);
-            ps.setInt(2, accountNo);
-            ps.executeUpdate();
-            ps.close();
-
-            ps = con.prepareStatement("INSERT INTO schemes VALUES (?, ?)");
-            ps.setInt(1, accountNo);
-            ps.setString(2, loanType + " Loan: ₹" + amount);
-            ps.executeUpdate();
-            ps.close();
-        } catch (SQLException e) {
+            BankService.approveLoan(accountNo, amount, loanType);
+        } catch (IllegalArgumentException | SQLException e) {
             System.out.println(e.getMessage());
+            return;
         }
 
         System.out.println("Loan approved successfully.");
     }
 
-    private static void displayAccountDetails(User user, User account) {
+    private static void displayAccountDetails(User user, Account account) {
         System.out.println("\nACCOUNT DETAILS");
         System.out.println("User ID: " + user.getUserId());
         System.out.println("Account No: " + account.getAccountNo());
@@ -1664,7 +1944,7 @@ class Bank {
         System.out.println("Mobile: " + user.getMobileNumber());
         System.out.println("Email: " + user.getEmail());
         System.out.println("Account Type: " + account.getAccountType());
-        System.out.println("Balance: ₹" + account.getBalance());
+        System.out.println("Balance: ₹" + Money.format(account.getBalance()));
         System.out.println("Debit Card: " + (account.hasDebitCard() ? "Yes" : "No"));
         System.out.println("Credit Card: " + (account.hasCreditCard() ? "Yes" : "No"));
         System.out.println("Loan: " + (account.hasLoan() ? "Yes" : "No"));
@@ -1686,28 +1966,18 @@ class Bank {
             return;
         }
 
-        String spl = "{CALL delete_Account(?)}";
-        CallableStatement cst = con.prepareCall(spl);
-        cst.setInt(1, accountNo);
-        int r = cst.executeUpdate();
-        if(r>0){
+        if(storage.deleteAccount(accountNo)){
             System.out.println("Delete successful");
             // Remove from local data structures
-            int userId = accountNoToUserId.get(accountNo);
-            List<User> accounts = userAccounts.get(userId);
-            if (accounts != null) {
-                accounts.removeIf(acc -> acc.getAccountNo() == accountNo);
-                if (accounts.isEmpty()) {
-                    userAccounts.remove(userId);
-                }
-            }
-            accountNoToUserId.remove(accountNo);
+            forgetAccount(accountNo);
         } else {
             System.out.println("Delete unsuccessful");
         }
     }
 
     private static void saveAccountsToFile() {
+        // Export reads every account's history, so fetch what lazy mode skipped in bulk rather than one by one
+        hydrateRemainingAccounts();
         try (PrintWriter writer = new PrintWriter(("bank_data.txt"))) {
 
             // Header
@@ -1739,14 +2009,14 @@ class Bank {
 
             for (Integer userId : userAccounts.keySet()) {
                 User user = users.get(userId);
-                List<User> accounts = userAccounts.get(userId);
+                List<Account> accounts = userAccounts.get(userId);
 
-                for (User account : accounts) {
+                for (Account account : accounts) {
                     writer.println("User ID: " + userId);
                     writer.println("Name: " + user.getFirstName() + " " + user.getLastName());
                     writer.println("Account No: " + account.getAccountNo());
                     writer.println("Account Type: " + account.getAccountType());
-                    writer.println("Balance: ₹" + account.getBalance());
+                    writer.println("Balance: ₹" + Money.format(account.getBalance()));
                     writer.println("MPIN: " + account.getMpin());
                     writer.println("Debit Card: " + (account.hasDebitCard() ? "Yes" : "No"));
                     writer.println("Credit Card: " + (account.hasCreditCard() ? "Yes" : "No"));
@@ -1758,9 +2028,9 @@ class Bank {
                     }
 
                     // Transactions (last 5)
-                    if (!account.getTransactionHistory().isEmpty()) {
+                    List<Transaction> recentTransactions = account.getTransactionHistory();
+                    if (!recentTransactions.isEmpty()) {
                         writer.println("Recent Transactions:");
-                        List<String> recentTransactions = account.getTransactionHistory();
                         int start = Math.max(0, recentTransactions.size() - 5);
                         for (int i = start; i < recentTransactions.size(); i++) {
                             writer.println("  - " + recentTransactions.get(i));
@@ -1786,14 +2056,14 @@ class Bank {
             int totalDebitCards = 0;
             int totalCreditCards = 0;
             int totalLoans = 0;
-            double totalBalance = 0;
+            long totalBalance = 0;
             int savingsAccounts = 0;
             int currentAccounts = 0;
             int nriAccounts = 0;
 
-            for (List<User> accounts : userAccounts.values()) {
+            for (List<Account> accounts : userAccounts.values()) {
                 totalAccounts += accounts.size();
-                for (User account : accounts) {
+                for (Account account : accounts) {
                     totalBalance += account.getBalance();
                     if (account.hasDebitCard()) totalDebitCards++;
                     if (account.hasCreditCard()) totalCreditCards++;
@@ -1810,7 +2080,7 @@ class Bank {
             writer.println("  - Savings Accounts: " + savingsAccounts);
             writer.println("  - Current Accounts: " + currentAccounts);
             writer.println("  - NRI Accounts: " + nriAccounts);
-            writer.println("Total Balance: ₹" + totalBalance);
+            writer.println("Total Balance: ₹" + Money.format(totalBalance));
             writer.println("Debit Cards Issued: " + totalDebitCards);
             writer.println("Credit Cards Issued: " + totalCreditCards);
             writer.println("Loans Approved: " + totalLoans);
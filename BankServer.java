@@ -0,0 +1,297 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+// Network front end: a line protocol over TCP where every client connection is a session running on
+// its own virtual thread. Sessions go through BankService, so postings take the same locks and
+// persistence path as the console. Blocking on a socket, an account lock or a pooled connection parks
+// only the virtual thread, which is what lets one JVM hold thousands of open sessions.
+//
+// The protocol is plain text, passwords and MPINs included, so the server only listens on the address it
+// is given (Bank.serverBindAddress, loopback unless configured otherwise).
+// At most maxSessions connections are served at once; the next one is told the server is busy and closed.
+// Each request is one line, each reply one line starting with OK or ERR (HISTORY sends OK <n> then n lines):
+//
+//   LOGIN <userId> <password>        ACCOUNTS                  SELECT <accountNo> <mpin>
+//   BALANCE                          DASHBOARD                 HISTORY
+//   DEPOSIT <amount>                 WITHDRAW <amount>         TRANSFER <accountNo|mobile> <amount>
+//   LOGOUT                           QUIT
+class BankServer {
+    // Everything the server knows about one connection, the equivalent of userMenu's locals
+    static final class Session {
+        final long id;
+        final String remote;
+        User user;
+        Account account;
+
+        Session(long id, String remote) {
+            this.id = id;
+            this.remote = remote;
+        }
+    }
+
+    private final String bindAddress;
+    private final int port;
+    private final Semaphore sessionPermits;
+    private final int maxSessions;
+    private final int idleTimeoutMs;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextSessionId = new AtomicLong(1);
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong commandsServed = new AtomicLong();
+    private volatile int peakSessions;
+    private volatile ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    BankServer(String bindAddress, int port, int maxSessions, int idleTimeoutMs) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.sessionPermits = new Semaphore(maxSessions);
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getByName(bindAddress));
+        acceptThread = new Thread(this::acceptLoop, "bank-server-accept");
+        acceptThread.start();
+    }
+
+    // Stop accepting, close every open session and wait for their threads to finish
+    public void shutdown() throws InterruptedException {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing server socket: " + e.getMessage());
+        }
+        acceptThread.join();
+        sessionPermits.acquire(maxSessions); // sessions hand their permit back when their thread ends
+        sessionPermits.release(maxSessions);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                break; // socket closed by shutdown()
+            }
+            if (!sessionPermits.tryAcquire()) {
+                rejected.incrementAndGet();
+                reject(socket);
+                continue;
+            }
+            accepted.incrementAndGet();
+            Session session = new Session(nextSessionId.getAndIncrement(), String.valueOf(socket.getRemoteSocketAddress()));
+            sessions.put(session.id, session);
+            openSockets.add(socket);
+            peakSessions = Math.max(peakSessions, sessions.size());
+            Thread.ofVirtual().name("session-" + session.id).start(() -> {
+                try {
+                    serve(session, socket);
+                } finally {
+                    sessions.remove(session.id);
+                    openSockets.remove(socket);
+                    sessionPermits.release();
+                }
+            });
+        }
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write("ERR server busy, try again later\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            // client already gone
+        }
+    }
+
+    private void serve(Session session, Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+            socket.setSoTimeout(idleTimeoutMs);
+            socket.setTcpNoDelay(true);
+            out.println("OK Bank Management System, session " + session.id);
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                commandsServed.incrementAndGet();
+                if (!handle(session, line.trim(), out)) {
+                    out.flush();
+                    break;
+                }
+                out.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            // idle for longer than idleTimeoutMs, drop the session
+        } catch (SocketException e) {
+            // closed by the client or by shutdown()
+        } catch (IOException e) {
+            System.out.println("Session " + session.id + " (" + session.remote + ") failed: " + e.getMessage());
+        }
+    }
+
+    // One request; false ends the session
+    private static boolean handle(Session session, String line, PrintWriter out) {
+        String[] args = line.split("\\s+");
+        String command = args[0].toUpperCase();
+        try {
+            switch (command) {
+                case "LOGIN":
+                    expect(args, 3);
+                    User user = Bank.users.get(Integer.parseInt(args[1]));
+                    // Same answer for an unknown user and a wrong password
+                    if (user == null || !args[2].equals(user.getPassword())) {
+                        out.println("ERR Invalid user ID or password.");
+                        break;
+                    }
+                    session.user = user;
+                    session.account = null;
+                    out.println("OK Welcome, " + user.getFirstName() + " " + user.getLastName());
+                    break;
+                case "ACCOUNTS":
+                    requireUser(session);
+                    StringBuilder accounts = new StringBuilder("OK");
+                    for (Account account : accountsOf(session.user)) {
+                        accounts.append(' ').append(account.getAccountNo()).append(':').append(account.getAccountType());
+                    }
+                    out.println(accounts);
+                    break;
+                case "SELECT":
+                    requireUser(session);
+                    expect(args, 3);
+                    Account selected = null;
+                    for (Account account : accountsOf(session.user)) {
+                        if (String.valueOf(account.getAccountNo()).equals(args[1])) {
+                            selected = account;
+                        }
+                    }
+                    if (selected == null || !args[2].equals(selected.getMpin())) {
+                        out.println("ERR Invalid account or MPIN.");
+                        break;
+                    }
+                    session.account = selected;
+                    out.println("OK " + selected.getAccountNo());
+                    break;
+                case "BALANCE":
+                    requireAccount(session);
+                    out.println("OK " + Money.format(session.account.getBalance()));
+                    break;
+                case "DASHBOARD":
+                    requireAccount(session);
+                    Account account = session.account;
+                    out.println("OK name=" + session.user.getFirstName() + " " + session.user.getLastName()
+                            + " accountNo=" + account.getAccountNo() + " type=" + account.getAccountType()
+                            + " balance=" + Money.format(account.getBalance())
+                            + " debitCard=" + (account.hasDebitCard() ? "yes" : "no")
+                            + " creditCard=" + (account.hasCreditCard() ? "yes" : "no")
+                            + " loan=" + (account.hasLoan() ? "yes" : "no"));
+                    break;
+                case "HISTORY":
+                    requireAccount(session);
+                    List<String> rows = new ArrayList<>();
+                    for (Transaction transaction : session.account.getTransactionHistory()) {
+                        rows.add(transaction.toString());
+                    }
+                    out.println("OK " + rows.size());
+                    for (String row : rows) {
+                        out.println(row);
+                    }
+                    break;
+                case "DEPOSIT":
+                    requireAccount(session);
+                    expect(args, 2);
+                    BankService.deposit(session.account.getAccountNo(), Money.parse(args[1]));
+                    out.println("OK " + Money.format(session.account.getBalance()));
+                    break;
+                case "WITHDRAW":
+                    requireAccount(session);
+                    expect(args, 2);
+                    BankService.withdraw(session.account.getAccountNo(), Money.parse(args[1]));
+                    out.println("OK " + Money.format(session.account.getBalance()));
+                    break;
+                case "TRANSFER":
+                    requireAccount(session);
+                    expect(args, 3);
+                    Account to = BankService.resolveAccount(args[1]);
+                    BankService.transfer(session.account.getAccountNo(), to.getAccountNo(), Money.parse(args[2]));
+                    out.println("OK " + Money.format(session.account.getBalance()));
+                    break;
+                case "LOGOUT":
+                    session.user = null;
+                    session.account = null;
+                    out.println("OK Logged out successfully.");
+                    break;
+                case "QUIT":
+                    out.println("OK bye");
+                    return false;
+                default:
+                    out.println("ERR Unknown command.");
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            out.println("ERR " + e.getMessage());
+        } catch (SQLException e) {
+            out.println("ERR Storage error: " + e.getMessage());
+        } catch (Exception e) {
+            out.println("ERR " + e);
+        }
+        return true;
+    }
+
+    private static List<Account> accountsOf(User user) {
+        List<Account> accounts = Bank.userAccounts.get(user.getUserId());
+        return accounts == null ? List.of() : accounts;
+    }
+
+    private static void requireUser(Session session) {
+        if (session.user == null) {
+            throw new IllegalArgumentException("Please LOGIN first.");
+        }
+    }
+
+    private static void requireAccount(Session session) {
+        requireUser(session);
+        if (session.account == null) {
+            throw new IllegalArgumentException("Please SELECT an account first.");
+        }
+    }
+
+    private static void expect(String[] args, int count) {
+        if (args.length != count) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " arguments, got " + (args.length - 1) + ".");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    public String statsReport() {
+        return "Server: " + accepted.get() + " sessions served, " + sessions.size() + " open (peak " + peakSessions + " of " + maxSessions
+                + " concurrent), " + rejected.get() + " turned away, " + commandsServed.get() + " commands";
+    }
+}
@@ -0,0 +1,219 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Pattern;
+// Headless API over Bank: everything the console menus do, callable from code (BatchRunner, tests,
+// a network front end) without a Scanner. Nothing here prints. Broken rules and bad input come back
+// as IllegalArgumentException with the message the console shows, storage failures as SQLException.
+class BankService {
+    private static final Pattern PAN_PATTERN = Pattern.compile("[A-Z]{5}[0-9]{4}[A-Z]");
+
+    private BankService() {
+    }
+
+    // USERS
+
+    // Validates like addUser, stores the user, then makes it visible in the maps and indexes
+    static User createUser(String firstName, String lastName, LocalDate dob, String mobileNumber, String email,
+                           String aadhaar, String pan, String password) throws SQLException {
+        pan = pan.toUpperCase();
+        String problem = dobProblem(dob);
+        if (problem == null) problem = mobileProblem(mobileNumber);
+        if (problem == null) problem = emailProblem(email);
+        if (problem == null) problem = aadhaarProblem(aadhaar);
+        if (problem == null) problem = panProblem(pan);
+        if (problem != null) {
+            throw new IllegalArgumentException(problem);
+        }
+
+        User user = new User(allocateUserId(), firstName, lastName, dob, mobileNumber, email, aadhaar, pan, password);
+        storage().insertUser(user);
+        Bank.users.put(user.getUserId(), user);
+        Bank.indexIdentifiers(user);
+        Bank.nameIndex.add(firstName + " " + lastName, user.getUserId());
+        Bank.indexForSearch(user);
+        return user;
+    }
+
+    // Field checks, null when the value is acceptable
+    static String dobProblem(LocalDate dob) {
+        return dob.isAfter(LocalDate.now().minusYears(18)) ? "User must be at least 18 years old." : null;
+    }
+
+    static String mobileProblem(String mobileNumber) {
+        if (mobileNumber.length() != 10) {
+            return "Invalid mobile number. Must be 10 digits.";
+        }
+        if (Bank.mobileToUserId.containsKey(mobileNumber)) {
+            return "Mobile number already registered. Please use a different number.";
+        }
+        return null;
+    }
+
+    static String emailProblem(String email) {
+        return Bank.isValidEmail(email) ? null : "Invalid email format. Please enter a valid email address.";
+    }
+
+    static String aadhaarProblem(String aadhaar) {
+        if (aadhaar.length() != 12) {
+            return "Invalid Aadhaar number. Must be 12 digits.";
+        }
+        if (Bank.aadhaarToUserId.containsKey(aadhaar)) {
+            return "Aadhaar number already registered. Please use a different Aadhaar.";
+        }
+        return null;
+    }
+
+    // Expects the PAN already upper-cased, that is how it is stored and indexed
+    static String panProblem(String pan) {
+        if (pan.length() != 10) {
+            return "PAN must be exactly 10 characters.";
+        }
+        if (!PAN_PATTERN.matcher(pan).matches()) {
+            return "Invalid PAN format. Must be in format: ABCDE1234F (5 letters, 4 numbers, 1 letter)";
+        }
+        if (Bank.panToUserId.containsKey(pan)) {
+            return "PAN number already registered. Please use a different PAN.";
+        }
+        return null;
+    }
+
+    // Ids are never handed out twice, a failed insert leaves a gap
+    static synchronized int allocateUserId() {
+        return Bank.nextUserId++;
+    }
+
+    static synchronized int allocateAccountNo() {
+        return Bank.nextAccountNo++;
+    }
+
+    // ACCOUNTS
+
+    static Account openAccount(int userId, String accountType, long initialBalance, String mpin) throws SQLException {
+        User user = Bank.users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        if (mpin.length() != 6) {
+            throw new IllegalArgumentException("MPIN must be Length of 6.");
+        }
+        if (initialBalance < 0) {
+            throw new IllegalArgumentException("Initial balance cannot be negative.");
+        }
+
+        Account account = new Account(allocateAccountNo(), user, accountType, initialBalance, mpin);
+        storage().insertAccount(account);
+        Bank.registerAccount(account);
+        return account;
+    }
+
+    static Account account(int accountNo) {
+        Account account = Bank.accountsByNo.get(accountNo);
+        if (account == null) {
+            throw new IllegalArgumentException("Account " + accountNo + " not found.");
+        }
+        return account;
+    }
+
+    // An account number, or a 10 digit mobile number standing for that user's first account (as UPI does)
+    static Account resolveAccount(String accountNoOrMobile) {
+        if (accountNoOrMobile.length() == 10) {
+            Integer userId = Bank.mobileToUserId.get(accountNoOrMobile);
+            List<Account> accounts = userId == null ? null : Bank.userAccounts.get(userId);
+            if (accounts == null || accounts.isEmpty()) {
+                throw new IllegalArgumentException("No account found for mobile number " + accountNoOrMobile + ".");
+            }
+            return accounts.getFirst();
+        }
+        try {
+            return account(Integer.parseInt(accountNoOrMobile));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an account or mobile number: " + accountNoOrMobile);
+        }
+    }
+
+    // POSTINGS
+
+    static Transaction deposit(int accountNo, long amount) throws Exception {
+        return Bank.postToAccount(account(accountNo), new DepositOperation(), amount);
+    }
+
+    static Transaction withdraw(int accountNo, long amount) throws Exception {
+        return Bank.postToAccount(account(accountNo), new WithdrawOperation(), amount);
+    }
+
+    static void transfer(int fromAccountNo, int toAccountNo, long amount) throws Exception {
+        if (fromAccountNo == toAccountNo) {
+            throw new IllegalArgumentException("Cannot transfer to same account.");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        Bank.postTransfer(account(fromAccountNo), account(toAccountNo), amount);
+    }
+
+    // CARDS AND LOANS
+
+    static void issueCard(int accountNo, boolean credit) throws SQLException {
+        Account account = account(accountNo);
+        if (credit ? account.hasCreditCard() : account.hasDebitCard()) {
+            throw new IllegalArgumentException("This account already has a " + (credit ? "credit" : "debit") + " card.");
+        }
+        Bank.updateAccountFlags(account, credit ? a -> a.setHasCreditCard(true) : a -> a.setHasDebitCard(true));
+    }
+
+    static void approveLoan(int accountNo, long amount, String loanType) throws SQLException {
+        Account account = account(accountNo);
+        if (account.hasLoan()) {
+            throw new IllegalArgumentException("This account already has a loan.");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive.");
+        }
+        String scheme = loanType + " Loan: ₹" + Money.format(amount);
+        account.ensureHydrated(); // before the scheme is inserted, see Account.ensureHydrated
+        Bank.updateAccountFlags(account, a -> a.setHasLoan(true));
+        storage().insertScheme(accountNo, scheme);
+        account.addScheme(scheme);
+    }
+
+    // SEARCH
+
+    // Best fuzzy matches on name, email or mobile first
+    static List<User> search(String query, int limit) {
+        return toUsers(Bank.searchIndex.search(query, limit));
+    }
+
+    // Exact full name, falling back to names starting with it; a blank last name matches on first name only
+    static List<User> findByName(String firstName, String lastName) {
+        List<Integer> userIds;
+        if (lastName.isBlank()) {
+            userIds = Bank.nameIndex.prefix(firstName.trim() + " ");
+        } else {
+            String fullName = firstName.trim() + " " + lastName.trim();
+            userIds = Bank.nameIndex.exact(fullName);
+            if (userIds.isEmpty()) {
+                userIds = Bank.nameIndex.prefix(fullName);
+            }
+        }
+        return toUsers(userIds);
+    }
+
+    private static List<User> toUsers(List<Integer> userIds) {
+        List<User> result = new ArrayList<>(userIds.size());
+        for (int userId : userIds) {
+            User user = Bank.users.get(userId);
+            if (user != null) {
+                result.add(user);
+            }
+        }
+        return result;
+    }
+
+    private static BankStorage storage() {
+        if (Bank.storage == null) {
+            throw new IllegalStateException("Storage is not initialized.");
+        }
+        return Bank.storage;
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+// Binary snapshot of users and accounts, so startup does not have to rebuild them from SQL.
+// Written periodically and on exit; read at startup through a memory-mapped file and then caught
+// up with the tables: users and accounts the database stamped (updatedAt) since the snapshot's mark,
+// and deleted accounts. Users are never deleted. History and schemes are not in the snapshot, they
+// come from the database as before (lazily or in bulk).
+//
+// Layout: long magic, int format version, long createdAt, int user count, users, int account count,
+// accounts, then footer = int max userId, int max accountNo, long changedSince (epoch ms),
+// long CRC32 of everything before it. Strings are an int byte length (-1 for null) plus UTF-8.
+class BankSnapshot {
+    private static final long MAGIC = 0x42414E4B534E4150L; // "BANKSNAP"
+    private static final int FORMAT_VERSION = 2;
+    private static final int FOOTER_BYTES = 24;
+    // A change whose statement ran before the snapshot but committed after it carries an older
+    // updatedAt, so the catch-up re-reads everything changed this long before the snapshot too
+    private static final long CATCH_UP_SLACK_MS = 60_000;
+
+    private static final int FLAG_CREDIT_CARD = 1;
+    private static final int FLAG_DEBIT_CARD = 2;
+    private static final int FLAG_LOAN = 4;
+
+    // WRITE
+    // Into a temp file that replaces the old snapshot only once it is complete and on disk
+    static synchronized void write(Path path) throws IOException {
+        long start = System.nanoTime();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        // High-water mark by the database's clock, taken before the in-memory state is read: any row
+        // updated after it is re-read on load
+        long changedSince;
+        try (Connection con = Bank.pool.borrow();
+             Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT CURRENT_TIMESTAMP(6)")) {
+            rs.next();
+            changedSince = rs.getTimestamp(1).getTime() - CATCH_UP_SLACK_MS;
+        } catch (SQLException e) {
+            throw new IOException("Could not read the database clock: " + e.getMessage(), e);
+        }
+        List<User> userList = new ArrayList<>(Bank.users.values());
+        List<Account> accountList = new ArrayList<>(Bank.accountsByNo.values());
+        int maxUserId = 0;
+        int maxAccountNo = 0;
+
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16), crc))) {
+            out.writeLong(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+
+            out.writeInt(userList.size());
+            for (User user : userList) {
+                out.writeInt(user.getUserId());
+                writeString(out, user.getFirstName());
+                writeString(out, user.getLastName());
+                out.writeLong(user.getDob().toEpochDay());
+                writeString(out, user.getMobileNumber());
+                writeString(out, user.getEmail());
+                writeString(out, user.getAadhaar());
+                writeString(out, user.getPan());
+                writeString(out, user.getPassword());
+                maxUserId = Math.max(maxUserId, user.getUserId());
+            }
+
+            out.writeInt(accountList.size());
+            for (Account account : accountList) {
+                int accountNo = account.getAccountNo();
+                long balance;
+                long version;
+                int flags;
+                // Balance and version are changed together under the account's lock, read them the same way
+                Bank.accountLocks.lock(accountNo);
+                try {
+                    balance = account.getBalance();
+                    version = account.getVersion();
+                    flags = (account.hasCreditCard() ? FLAG_CREDIT_CARD : 0)
+                            | (account.hasDebitCard() ? FLAG_DEBIT_CARD : 0)
+                            | (account.hasLoan() ? FLAG_LOAN : 0);
+                } finally {
+                    Bank.accountLocks.unlock(accountNo);
+                }
+                out.writeInt(accountNo);
+                out.writeInt(account.getUserId());
+                writeString(out, account.getAccountType());
+                out.writeLong(balance);
+                out.writeLong(version);
+                out.writeByte(flags);
+                writeString(out, account.getMpin());
+                maxAccountNo = Math.max(maxAccountNo, accountNo);
+            }
+
+            out.writeInt(maxUserId);
+            out.writeInt(maxAccountNo);
+            out.writeLong(changedSince);
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.printf("Snapshot of %d users and %d accounts written in %.1f ms.%n",
+                userList.size(), accountList.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // LOAD
+    // Returns false (with nothing registered) when there is no usable snapshot, the caller then does
+    // a full load from the tables.
+    static boolean load(Path path) throws SQLException {
+        if (!Files.exists(path)) {
+            System.out.println("No snapshot found, loading from the database.");
+            return false;
+        }
+        long loadStart = System.nanoTime();
+        System.out.println("Loading bank data from snapshot...");
+
+        Map<Integer, User> loadedUsers;
+        List<Account> loadedAccounts;
+        int maxUserId;
+        int maxAccountNo;
+        long changedSince;
+        long phaseStart = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 20 + FOOTER_BYTES || size > Integer.MAX_VALUE) {
+                return invalid("unexpected size " + size);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            crc.update(data.slice(0, (int) size - 8));
+            if (crc.getValue() != data.getLong((int) size - 8)) {
+                return invalid("checksum mismatch");
+            }
+            if (data.getLong() != MAGIC) {
+                return invalid("not a snapshot file");
+            }
+            int format = data.getInt();
+            if (format != FORMAT_VERSION) {
+                return invalid("format version " + format + ", expected " + FORMAT_VERSION);
+            }
+            long createdAt = data.getLong();
+
+            int userCount = data.getInt();
+            loadedUsers = new HashMap<>(userCount * 4 / 3 + 1);
+            for (int i = 0; i < userCount; i++) {
+                int userId = data.getInt();
+                String firstName = readString(data);
+                String lastName = readString(data);
+                LocalDate dob = LocalDate.ofEpochDay(data.getLong());
+                String mobileNumber = readString(data);
+                String email = readString(data);
+                String aadhaar = readString(data);
+                String pan = readString(data);
+                String password = readString(data);
+                loadedUsers.put(userId, new User(userId, firstName, lastName, dob, mobileNumber, email,
+                        aadhaar, pan, password));
+            }
+
+            int accountCount = data.getInt();
+            loadedAccounts = new ArrayList<>(accountCount);
+            for (int i = 0; i < accountCount; i++) {
+                int accountNo = data.getInt();
+                User owner = loadedUsers.get(data.getInt());
+                String accountType = readString(data);
+                long balance = data.getLong();
+                long version = data.getLong();
+                int flags = data.get();
+                String mpin = readString(data);
+                if (owner == null) {
+                    return invalid("account " + accountNo + " has no owner");
+                }
+                Account account = new Account(accountNo, owner, accountType, balance, mpin);
+                account.setVersion(version);
+                account.setHasCreditCard((flags & FLAG_CREDIT_CARD) != 0);
+                account.setHasDebitCard((flags & FLAG_DEBIT_CARD) != 0);
+                account.setHasLoan((flags & FLAG_LOAN) != 0);
+                loadedAccounts.add(account);
+            }
+
+            maxUserId = data.getInt();
+            maxAccountNo = data.getInt();
+            changedSince = data.getLong();
+            if (data.position() != size - 8) {
+                return invalid("trailing data");
+            }
+            System.out.printf("  snapshot from %tF %<tT%n", createdAt);
+        } catch (IOException | RuntimeException e) {
+            return invalid(e.toString());
+        }
+        Bank.reportPhase("snapshot", loadedUsers.size() + loadedAccounts.size(), phaseStart);
+
+        for (User user : loadedUsers.values()) {
+            Bank.registerUser(user);
+        }
+        for (Account account : loadedAccounts) {
+            Bank.registerAccount(account);
+        }
+
+        try (Connection con = Bank.pool.borrow()) {
+            catchUp(con, maxUserId, loadedAccounts.size(), changedSince);
+
+            if (Bank.lazyLoad) {
+                for (Account account : Bank.accountsByNo.values()) {
+                    account.setHydrated(false);
+                }
+                System.out.println("  transactions, schemes: deferred (lazy mode)");
+            } else {
+                JdbcStorage.loadHistoryInBulk(con, Bank.accountsByNo);
+            }
+        }
+        Bank.buildNameIndexes();
+
+        System.out.println("Startup load finished in " + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
+        return true;
+    }
+
+    private static boolean invalid(String reason) {
+        System.out.println("Snapshot not usable (" + reason + "), loading from the database.");
+        return false;
+    }
+
+    private static String readString(MappedByteBuffer data) {
+        int length = data.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > data.remaining()) {
+            throw new IllegalStateException("string of " + length + " bytes runs past the end");
+        }
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // DELTA
+    // The database stamps updatedAt on every user and account insert and change, so every row stamped
+    // after the snapshot's mark is re-read, whatever the change was (a new user, a password changed by
+    // this or another instance, a posting). Nothing stamps a deleted row: the snapshot's
+    // accounts still present are the current count minus the new ones, and only when some are missing
+    // does a narrow accountNo scan find which. Both reads run in one transaction so they agree.
+    private static void catchUp(Connection con, int maxUserId, int accountCount, long changedSince)
+            throws SQLException {
+        long phaseStart = System.nanoTime();
+        int newUsers = 0;
+        int changedUsers = 0;
+        PreparedStatement ps = con.prepareStatement("SELECT * FROM users WHERE userId > ? OR updatedAt >= ?");
+        ps.setInt(1, maxUserId);
+        ps.setTimestamp(2, new Timestamp(changedSince));
+        ResultSet rs = ps.executeQuery();
+        while (rs.next()) {
+            User user = Bank.users.get(rs.getInt("userId"));
+            if (user != null) {
+                user.password = rs.getString("password"); // the only user field that changes
+                changedUsers++;
+            } else {
+                Bank.registerUser(JdbcStorage.readUser(rs));
+                newUsers++;
+            }
+        }
+        rs.close();
+        ps.close();
+
+        int changed = 0;
+        int added = 0;
+        int removed = 0;
+        con.setAutoCommit(false);
+        try {
+            ps = con.prepareStatement("SELECT * FROM accounts WHERE updatedAt >= ?");
+            ps.setTimestamp(1, new Timestamp(changedSince));
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                int accountNo = rs.getInt("accountNo");
+                Account account = Bank.accountsByNo.get(accountNo);
+                if (account != null) {
+                    account.setBalance(rs.getLong("balance"));
+                    account.setVersion(rs.getLong("version"));
+                    account.setHasCreditCard(rs.getInt("hasCreditCard") == 1);
+                    account.setHasDebitCard(rs.getInt("hasDebitCard") == 1);
+                    account.setHasLoan(rs.getInt("hasLoan") == 1);
+                    changed++;
+                } else {
+                    User owner = Bank.users.get(rs.getInt("userId"));
+                    if (owner != null) {
+                        Bank.registerAccount(JdbcStorage.readAccount(rs, owner));
+                        added++;
+                    }
+                }
+            }
+            rs.close();
+            ps.close();
+
+            Statement statement = con.createStatement();
+            rs = statement.executeQuery("SELECT COUNT(*) FROM accounts");
+            rs.next();
+            boolean noneDeleted = rs.getInt(1) == accountCount + added;
+            rs.close();
+            statement.close();
+
+            if (!noneDeleted) {
+                Set<Integer> seen = new HashSet<>(Bank.accountsByNo.size() * 4 / 3 + 1);
+                statement = JdbcStorage.createStreamingStatement(con);
+                rs = statement.executeQuery("SELECT accountNo FROM accounts");
+                while (rs.next()) {
+                    seen.add(rs.getInt(1));
+                }
+                rs.close();
+                statement.close();
+                for (Integer accountNo : new ArrayList<>(Bank.accountsByNo.keySet())) {
+                    if (!seen.contains(accountNo)) {
+                        Bank.forgetAccount(accountNo);
+                        removed++;
+                    }
+                }
+            }
+            con.commit();
+        } finally {
+            con.setAutoCommit(true);
+        }
+        Bank.reportPhase("delta (" + newUsers + " new users, " + changedUsers + " users re-read, " +
+                (changed + added) + " accounts re-read, " + removed + " removed)",
+                newUsers + changedUsers + changed + added + removed, phaseStart);
+    }
+}
@@ -0,0 +1,89 @@
+import java.sql.SQLException;
+import java.util.*;
+// Persistence behind Bank: every read and write of users, accounts, history and schemes goes through
+// one of these, so the application layer runs the same against MySQL (JdbcStorage) or against plain
+// Java collections (InMemoryStorage) for load tests and CI without a database server.
+//
+// Failures are reported as SQLException by every backend, that is what the console paths catch.
+// Writes that carry an expected version only succeed while the stored version still matches and then
+// bump it by one; a false return is a version conflict, see Bank.onVersionConflict.
+interface BankStorage {
+    // Results of transfer()
+    int TRANSFER_OK = 0;
+    int TRANSFER_INSUFFICIENT = 1;
+    int TRANSFER_FROM_CONFLICT = 2; // sender's version moved (or sender row missing)
+    int TRANSFER_TO_CONFLICT = 3;   // receiver's version moved (or receiver row missing)
+    // SQLState of a write that may or may not have committed ("transaction resolution unknown");
+    // any other SQLException from a write means nothing was changed
+    String OUTCOME_UNKNOWN = "08007";
+
+    // Credit half of a cross-shard transfer whose debit is committed, see AccountShards
+    final class PendingCredit {
+        final int fromAccountNo;
+        final int toAccountNo;
+        final long amount;
+        final long timestamp; // the debit's
+
+        PendingCredit(int fromAccountNo, int toAccountNo, long amount, long timestamp) {
+            this.fromAccountNo = fromAccountNo;
+            this.toAccountNo = toAccountNo;
+            this.amount = amount;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // Create or migrate whatever the backend needs before the first load
+    void initialize() throws SQLException;
+
+    // Put every stored user and account into Bank's maps (Bank.registerUser / Bank.registerAccount).
+    // Without history the accounts are left unhydrated and fetch it on first access.
+    void loadAll(boolean withHistory) throws Exception;
+
+    // History and schemes of one account, or of many in one pass (keyed by accountNo)
+    void loadHistory(Account account) throws SQLException;
+
+    void loadHistory(Map<Integer, Account> accounts) throws SQLException;
+
+    void insertUser(User user) throws SQLException;
+
+    void updatePassword(int userId, String password) throws SQLException;
+
+    void insertAccount(Account account) throws SQLException;
+
+    // Bulk onboarding: users, then accounts (whose owners may be among those users), all or nothing
+    void insertBatch(List<User> users, List<Account> accounts) throws SQLException;
+
+    // Write the account's balance and append its ledger row, if the stored version is still expectedVersion
+    boolean postBalance(Account account, long expectedVersion, Transaction transaction) throws SQLException;
+
+    // Single-writer shards: final balances of the touched accounts plus their ledger rows, all or nothing.
+    // rowAccounts.get(i) is the accountNo of rows.get(i). Pending credits opened by cross-shard debits
+    // are recorded and the ones settled by credits or reversals removed in the same transaction.
+    void applyBatch(Collection<Account> accounts, List<Integer> rowAccounts, List<Transaction> rows,
+                    List<PendingCredit> opened, List<PendingCredit> settled) throws SQLException;
+
+    // At startup, before the load: finish every pending credit left by a crash between a cross-shard
+    // debit and its credit (credit the receiver, or refund the sender if the receiver is gone).
+    // Returns how many were settled.
+    int settlePendingCredits() throws SQLException;
+
+    // Debit, credit and both ledger rows at once. On TRANSFER_OK the new balances and versions are
+    // copied into both accounts; on any other result nothing was changed. Without checkVersions only
+    // the sender's balance is checked.
+    int transfer(Account from, Account to, long amount, long timestamp, boolean checkVersions) throws SQLException;
+
+    // Card and loan flags as they are on the account now, if the stored version is still expectedVersion
+    boolean updateFlags(Account account, long expectedVersion) throws SQLException;
+
+    // Copy the stored row into the account; the balance only when includeBalance
+    void refreshAccount(Account account, boolean includeBalance) throws SQLException;
+
+    void insertScheme(int accountNo, String scheme) throws SQLException;
+
+    // Remove the account with its history and schemes, false if there was no such account
+    boolean deleteAccount(int accountNo) throws SQLException;
+
+    String statsReport();
+
+    void shutdown();
+}
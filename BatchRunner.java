@@ -0,0 +1,170 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+// Runs a command file through BankService as fast as it will go and reports throughput and latency
+// per command. One command per line, blank lines and lines starting with # are skipped:
+//
+//   user <first> <last> <dob> <mobile> <email> <aadhaar> <pan> <password>
+//   open <userId|mobile> <Savings|Current|NRI> <initialBalance> <mpin>
+//   deposit <account> <amount>
+//   withdraw <account> <amount>
+//   transfer <fromAccount> <toAccount> <amount>
+//   card <account> debit|credit
+//   loan <account> <amount> <loanType>
+//   search <text...>
+//
+// An <account> is an account number or a 10 digit mobile number (that user's first account), so a
+// script can refer to the users it creates without knowing the ids they get. Amounts are in rupees
+// as typed at the console (1500 or 1500.50). A failing line is counted and reported, the run goes on.
+class BatchRunner {
+    private static final int MAX_ERRORS_SHOWN = 10;
+
+    // Latencies of one command, in nanoseconds
+    private static final class Stats {
+        long[] nanos = new long[1024];
+        int count;
+        int failures;
+
+        void add(long elapsed) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsed;
+        }
+    }
+
+    private final TreeMap<String, Stats> stats = new TreeMap<>();
+    private final List<String> errors = new ArrayList<>();
+    private int lines;
+    private int failures;
+
+    static void run(Path file) throws IOException {
+        BatchRunner runner = new BatchRunner();
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    runner.execute(lineNo, line);
+                }
+            }
+        }
+        System.out.println(runner.report(System.nanoTime() - start));
+    }
+
+    private void execute(int lineNo, String line) {
+        String[] args = line.split("\\s+");
+        String command = args[0].toLowerCase();
+        Stats commandStats = stats.computeIfAbsent(command, k -> new Stats());
+        lines++;
+        long start = System.nanoTime();
+        try {
+            dispatch(command, args);
+        } catch (Exception e) {
+            failures++;
+            commandStats.failures++;
+            if (errors.size() < MAX_ERRORS_SHOWN) {
+                errors.add("  line " + lineNo + " (" + command + "): " + e.getMessage());
+            }
+        }
+        commandStats.add(System.nanoTime() - start);
+    }
+
+    private static void dispatch(String command, String[] args) throws Exception {
+        switch (command) {
+            case "user":
+                expect(args, 9);
+                BankService.createUser(args[1], args[2], LocalDate.parse(args[3]), args[4], args[5], args[6], args[7],
+                        args[8]);
+                break;
+            case "open":
+                expect(args, 5);
+                int userId = args[1].length() == 10 && Bank.mobileToUserId.containsKey(args[1])
+                        ? Bank.mobileToUserId.get(args[1]) : Integer.parseInt(args[1]);
+                BankService.openAccount(userId, args[2], Money.parse(args[3]), args[4]);
+                break;
+            case "deposit":
+                expect(args, 3);
+                BankService.deposit(BankService.resolveAccount(args[1]).getAccountNo(), Money.parse(args[2]));
+                break;
+            case "withdraw":
+                expect(args, 3);
+                BankService.withdraw(BankService.resolveAccount(args[1]).getAccountNo(), Money.parse(args[2]));
+                break;
+            case "transfer":
+                expect(args, 4);
+                BankService.transfer(BankService.resolveAccount(args[1]).getAccountNo(),
+                        BankService.resolveAccount(args[2]).getAccountNo(), Money.parse(args[3]));
+                break;
+            case "card":
+                expect(args, 3);
+                if (!args[2].equalsIgnoreCase("debit") && !args[2].equalsIgnoreCase("credit")) {
+                    throw new IllegalArgumentException("Card type must be debit or credit.");
+                }
+                BankService.issueCard(BankService.resolveAccount(args[1]).getAccountNo(),
+                        args[2].equalsIgnoreCase("credit"));
+                break;
+            case "loan":
+                expect(args, 4);
+                BankService.approveLoan(BankService.resolveAccount(args[1]).getAccountNo(), Money.parse(args[2]),
+                        args[3]);
+                break;
+            case "search":
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("Search text cannot be empty.");
+                }
+                BankService.search(String.join(" ", Arrays.copyOfRange(args, 1, args.length)), 10);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command.");
+        }
+    }
+
+    private static void expect(String[] args, int count) {
+        if (args.length != count) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " arguments, got " + (args.length - 1) + ".");
+        }
+    }
+
+    private String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Batch: %d commands, %d failed, in %d ms (%.0f commands/s)",
+                lines, failures, elapsedNanos / 1_000_000, seconds > 0 ? lines / seconds : 0));
+        report.append(String.format("%n  %-10s %8s %7s %10s %10s %10s %10s %10s",
+                "command", "count", "failed", "mean us", "p50 us", "p95 us", "p99 us", "max us"));
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats commandStats = entry.getValue();
+            long[] sorted = Arrays.copyOf(commandStats.nanos, commandStats.count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long nanos : sorted) {
+                total += nanos;
+            }
+            report.append(String.format("%n  %-10s %8d %7d %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    entry.getKey(), commandStats.count, commandStats.failures, total / 1e3 / sorted.length,
+                    percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                    sorted[sorted.length - 1] / 1e3));
+        }
+        if (!errors.isEmpty()) {
+            report.append("\nFirst failures:");
+            for (String error : errors) {
+                report.append('\n').append(error);
+            }
+        }
+        return report.toString();
+    }
+
+    // Nearest-rank percentile of sorted nanoseconds, in microseconds
+    private static double percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e3;
+    }
+}
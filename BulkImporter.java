@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.stream.IntStream;
+// Bulk onboarding of a branch: reads a CSV of customers (each optionally with one account) and adds
+// them in four passes:
+//   1. every row is parsed and checked in parallel with the same rules as addUser / addAccountToUser,
+//      including uniqueness against the identifier indexes;
+//   2. one sequential pass rejects identifiers repeated within the file (the first row keeps them)
+//      and hands out user ids and account numbers;
+//   3. accepted rows are stored batchSize at a time with BankStorage.insertBatch; if a batch fails its
+//      rows are retried one by one so only the bad ones are rejected;
+//   4. rejected rows are written to <file>.rejects.csv with their line number and reason.
+//
+// Columns, after a header line (no quoting, values may not contain commas):
+//   firstName,lastName,dob,mobileNumber,email,aadhaar,pan,password,accountType,initialBalance,mpin
+// The last three may be left empty for a customer without an account.
+class BulkImporter {
+    private static final int COLUMNS = 11;
+
+    // One data line, filled in by the passes above
+    private static final class Row {
+        final int lineNo;
+        final String text;
+        String reject;
+        String firstName;
+        String lastName;
+        LocalDate dob;
+        String mobileNumber;
+        String email;
+        String aadhaar;
+        String pan;
+        String password;
+        String accountType; // null when the row has no account
+        long initialBalance;
+        String mpin;
+        User user;
+        Account account;
+
+        Row(int lineNo, String text) {
+            this.lineNo = lineNo;
+            this.text = text;
+        }
+    }
+
+    static void run(Path file, int batchSize) throws IOException {
+        long start = System.nanoTime();
+        System.out.println("Importing " + file + "...");
+
+        long phaseStart = System.nanoTime();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Row[] rows = new Row[Math.max(0, lines.size() - 1)];
+        Bank.reportPhase("read", rows.length, phaseStart);
+
+        phaseStart = System.nanoTime();
+        IntStream.range(0, rows.length).parallel().forEach(i -> rows[i] = validate(i + 2, lines.get(i + 1)));
+        Bank.reportPhase("validate (parallel)", rows.length, phaseStart);
+
+        phaseStart = System.nanoTime();
+        List<Row> accepted = rejectDuplicatesAndAssignIds(rows);
+        Bank.reportPhase("uniqueness within file", rows.length, phaseStart);
+
+        phaseStart = System.nanoTime();
+        int batches = 0;
+        for (int from = 0; from < accepted.size(); from += batchSize) {
+            store(accepted.subList(from, Math.min(accepted.size(), from + batchSize)));
+            batches++;
+        }
+        Bank.reportPhase("insert (" + batches + " batches of up to " + batchSize + ")", accepted.size(), phaseStart);
+
+        int users = 0;
+        int accounts = 0;
+        List<Row> rejected = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.reject != null) {
+                rejected.add(row);
+            } else {
+                users++;
+                if (row.account != null) {
+                    accounts++;
+                }
+            }
+        }
+        Path rejectsFile = file.resolveSibling(file.getFileName() + ".rejects.csv");
+        if (!rejected.isEmpty()) {
+            writeRejects(rejectsFile, lines.isEmpty() ? "" : lines.getFirst(), rejected);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        double seconds = elapsed / 1e9;
+        System.out.printf("Imported %d users and %d accounts, rejected %d rows%s in %d ms (%.0f rows/s)%n",
+                users, accounts, rejected.size(), rejected.isEmpty() ? "" : " (see " + rejectsFile + ")",
+                elapsed / 1_000_000, seconds > 0 ? rows.length / seconds : 0);
+    }
+
+    // PASS 1: parse and check one line; runs on the common pool, so it only reads shared state
+    private static Row validate(int lineNo, String text) {
+        Row row = new Row(lineNo, text);
+        String[] fields = text.split(",", -1);
+        if (fields.length != COLUMNS) {
+            row.reject = "Expected " + COLUMNS + " columns, found " + fields.length + ".";
+            return row;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        row.firstName = fields[0];
+        row.lastName = fields[1];
+        row.mobileNumber = fields[3];
+        row.email = fields[4];
+        row.aadhaar = fields[5];
+        row.pan = fields[6].toUpperCase();
+        row.password = fields[7];
+        if (row.firstName.isEmpty() || row.lastName.isEmpty() || row.password.isEmpty()) {
+            row.reject = "First name, last name and password are required.";
+            return row;
+        }
+        try {
+            row.dob = LocalDate.parse(fields[2]);
+        } catch (DateTimeParseException e) {
+            row.reject = "Invalid date format. Please use YYYY-MM-DD.";
+            return row;
+        }
+
+        String problem = BankService.dobProblem(row.dob);
+        if (problem == null) problem = BankService.mobileProblem(row.mobileNumber);
+        if (problem == null) problem = BankService.emailProblem(row.email);
+        if (problem == null) problem = BankService.aadhaarProblem(row.aadhaar);
+        if (problem == null) problem = BankService.panProblem(row.pan);
+        if (problem == null && !(fields[8].isEmpty() && fields[9].isEmpty() && fields[10].isEmpty())) {
+            problem = validateAccount(row, fields[8], fields[9], fields[10]);
+        }
+        row.reject = problem;
+        return row;
+    }
+
+    private static String validateAccount(Row row, String accountType, String initialBalance, String mpin) {
+        switch (accountType.toLowerCase()) {
+            case "savings":
+                row.accountType = "Savings";
+                break;
+            case "current":
+                row.accountType = "Current";
+                break;
+            case "nri":
+                row.accountType = "NRI";
+                break;
+            default:
+                return "Account type must be Savings, Current or NRI.";
+        }
+        try {
+            row.initialBalance = Money.parse(initialBalance);
+        } catch (NumberFormatException | ArithmeticException e) {
+            return "Invalid initial balance. Use an amount like 1500 or 1500.50.";
+        }
+        if (row.initialBalance < 0) {
+            return "Initial balance cannot be negative.";
+        }
+        if (mpin.length() != 6) {
+            return "MPIN must be Length of 6.";
+        }
+        row.mpin = mpin;
+        return null;
+    }
+
+    // PASS 2: identifiers repeated within the file, then ids for the rows that are left
+    private static List<Row> rejectDuplicatesAndAssignIds(Row[] rows) {
+        HashMap<String, Integer> mobiles = new HashMap<>();
+        HashMap<String, Integer> aadhaars = new HashMap<>();
+        HashMap<String, Integer> pans = new HashMap<>();
+        List<Row> accepted = new ArrayList<>(rows.length);
+        for (Row row : rows) {
+            if (row.reject != null) {
+                continue;
+            }
+            Integer first = mobiles.putIfAbsent(row.mobileNumber, row.lineNo);
+            if (first != null) {
+                row.reject = "Mobile number repeats line " + first + ".";
+                continue;
+            }
+            first = aadhaars.putIfAbsent(row.aadhaar, row.lineNo);
+            if (first != null) {
+                row.reject = "Aadhaar number repeats line " + first + ".";
+                continue;
+            }
+            first = pans.putIfAbsent(row.pan, row.lineNo);
+            if (first != null) {
+                row.reject = "PAN number repeats line " + first + ".";
+                continue;
+            }
+
+            row.user = new User(BankService.allocateUserId(), row.firstName, row.lastName, row.dob, row.mobileNumber,
+                    row.email, row.aadhaar, row.pan, row.password);
+            if (row.accountType != null) {
+                row.account = new Account(BankService.allocateAccountNo(), row.user, row.accountType,
+                        row.initialBalance, row.mpin);
+            }
+            accepted.add(row);
+        }
+        return accepted;
+    }
+
+    // PASS 3: one storage batch; on failure each row is tried alone so only the offending ones are rejected
+    private static void store(List<Row> batch) {
+        try {
+            insert(batch);
+        } catch (SQLException e) {
+            for (Row row : batch) {
+                try {
+                    insert(List.of(row));
+                } catch (SQLException rowFailure) {
+                    row.reject = "Storage error: " + rowFailure.getMessage();
+                    continue;
+                }
+                register(row);
+            }
+            return;
+        }
+        for (Row row : batch) {
+            register(row);
+        }
+    }
+
+    private static void insert(List<Row> rows) throws SQLException {
+        List<User> users = new ArrayList<>(rows.size());
+        List<Account> accounts = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            users.add(row.user);
+            if (row.account != null) {
+                accounts.add(row.account);
+            }
+        }
+        Bank.storage.insertBatch(users, accounts);
+    }
+
+    private static void register(Row row) {
+        Bank.registerUser(row.user);
+        Bank.nameIndex.add(row.user.getFirstName() + " " + row.user.getLastName(), row.user.getUserId());
+        Bank.indexForSearch(row.user);
+        if (row.account != null) {
+            Bank.registerAccount(row.account);
+        }
+    }
+
+    // PASS 4
+    private static void writeRejects(Path path, String header, List<Row> rejected) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            writer.println("line,reason," + header);
+            for (Row row : rejected) {
+                writer.println(row.lineNo + ",\"" + row.reject.replace("\"", "\"\"") + "\"," + row.text);
+            }
+        }
+    }
+}
@@ -0,0 +1,464 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+// Bounded JDBC connection pool. borrow() hands out a wrapper whose close() returns the connection to
+// the pool, so callers use plain try-with-resources and never share a connection with another caller.
+// Each physical connection also keeps an LRU cache of prepared (and callable) statements keyed by SQL text.
+class ConnectionPool {
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long leakThresholdMs;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService leakChecker;
+    private volatile boolean closed;
+    // Capture the borrower's stack on every borrow for leak warnings. Costly on the posting path, so off
+    // unless a leak is being chased; the warning always names the borrowing thread.
+    private volatile boolean traceBorrowSites;
+
+    // Metrics
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong leaksReported = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                   long borrowTimeoutMs, long leakThresholdMs, int statementCacheSize) throws SQLException {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.statementCacheSize = statementCacheSize;
+
+        for (int i = 0; i < minSize; i++) {
+            total.incrementAndGet();
+            idle.add(open());
+        }
+
+        leakChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-leak-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, leakThresholdMs / 2);
+        leakChecker.scheduleAtFixedRate(this::reportLeaks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void setTraceBorrowSites(boolean traceBorrowSites) {
+        this.traceBorrowSites = traceBorrowSites;
+    }
+
+    // Borrow a connection, waiting up to the borrow timeout when all of them are in use
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+
+        while (true) {
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled == null && reserveSlot()) {
+                try {
+                    pooled = open();
+                } catch (SQLException e) {
+                    total.decrementAndGet();
+                    throw e;
+                }
+            }
+            if (pooled == null) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    pooled = remaining > 0 ? idle.pollFirst(remaining, TimeUnit.NANOSECONDS) : null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection.");
+                }
+                if (pooled == null) {
+                    timeouts.incrementAndGet();
+                    throw new SQLTimeoutException("Timed out after " + borrowTimeoutMs
+                            + " ms waiting for a database connection (pool size " + maxSize + ").");
+                }
+            }
+
+            if (!isUsable(pooled)) {
+                discard(pooled);
+                continue;
+            }
+
+            long waited = System.nanoTime() - start;
+            borrows.incrementAndGet();
+            waitNanosTotal.addAndGet(waited);
+            waitNanosMax.accumulateAndGet(waited, Math::max);
+
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrower = Thread.currentThread();
+            pooled.borrowSite = traceBorrowSites ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            return pooled.handle();
+        }
+    }
+
+    public void shutdown() {
+        closed = true;
+        leakChecker.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    public String statsReport() {
+        long count = borrows.get();
+        double avgMs = count == 0 ? 0 : waitNanosTotal.get() / 1e6 / count;
+        long lookups = statementHits.get() + statementMisses.get();
+        double hitRate = lookups == 0 ? 0 : 100.0 * statementHits.get() / lookups;
+        return String.format("Connection pool: %d open (%d idle, %d in use, max %d), %d borrows, " +
+                        "avg wait %.2f ms, max wait %.2f ms, %d timeouts, %d created, %d discarded, %d leaks reported%n" +
+                        "Statement cache: %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                total.get(), idle.size(), borrowed.size(), maxSize, count, avgMs, waitNanosMax.get() / 1e6,
+                timeouts.get(), created.get(), discarded.get(), leaksReported.get(),
+                statementHits.get(), statementMisses.get(), hitRate, statementEvictions.get());
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = total.get();
+            if (current >= maxSize) {
+                return false;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        PooledConnection pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+        created.incrementAndGet();
+        return pooled;
+    }
+
+    // Connections idle for a while are checked before being handed out again
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (pooled.physical.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - pooled.returnedAt > VALIDATE_AFTER_IDLE_MS) {
+                return pooled.physical.isValid(2);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        total.decrementAndGet();
+        discarded.incrementAndGet();
+        pooled.statements.clear();
+        try {
+            pooled.physical.close();
+        } catch (SQLException ignored) {
+            // already broken
+        }
+    }
+
+    // Called when a caller closes its wrapper: reset session state and put it back for the next caller
+    private void giveBack(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        pooled.borrower = null;
+        pooled.borrowSite = null;
+        pooled.statements.reclaim();
+        try {
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(pooled);
+            return;
+        }
+        if (closed) {
+            discard(pooled);
+            return;
+        }
+        pooled.returnedAt = System.currentTimeMillis();
+        idle.addFirst(pooled); // most recently used first, keeps the warm connections busy
+    }
+
+    private void reportLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > leakThresholdMs) {
+                pooled.leakReported = true;
+                leaksReported.incrementAndGet();
+                Thread borrower = pooled.borrower;
+                Throwable borrowSite = pooled.borrowSite;
+                String site = "an unrecorded site (turn on Bank.traceConnectionLeaks to record it)";
+                if (borrowSite != null) {
+                    for (StackTraceElement element : borrowSite.getStackTrace()) {
+                        if (!element.getClassName().startsWith(ConnectionPool.class.getName())) {
+                            site = element.toString();
+                            break;
+                        }
+                    }
+                }
+                System.out.println("Warning: database connection held for " + (now - pooled.borrowedAt)
+                        + " ms by " + borrower + ", borrowed at " + site);
+            }
+        }
+    }
+
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements = new StatementCache();
+        volatile long borrowedAt;
+        volatile long returnedAt = System.currentTimeMillis();
+        volatile Thread borrower;
+        volatile Throwable borrowSite; // only with traceBorrowSites
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        // A fresh wrapper per borrow, so a stale reference cannot close someone else's borrow
+        Connection handle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Handle(this));
+        }
+    }
+
+    // LRU cache of prepared statements for one physical connection. Callers still close() their
+    // statement as usual; the wrapper only resets its parameters and marks it free for the next caller.
+    private final class StatementCache {
+        private final LinkedHashMap<String, CachedStatement> entries = new LinkedHashMap<>(16, 0.75f, true);
+        // Not the monitor: a miss prepares on the server while holding it, and a virtual thread blocked
+        // inside synchronized pins its carrier
+        private final ReentrantLock lock = new ReentrantLock();
+
+        PreparedStatement prepare(Connection physical, String sql, boolean call) throws SQLException {
+            lock.lock();
+            try {
+                String key = call ? "call:" + sql : sql;
+                CachedStatement cached = entries.get(key);
+                if (cached != null && !cached.inUse) {
+                    statementHits.incrementAndGet();
+                    cached.inUse = true;
+                    return cached.handle();
+                }
+                statementMisses.incrementAndGet();
+                if (cached != null) {
+                    // Same SQL prepared twice before the first was closed, give this caller a plain statement
+                    return call ? physical.prepareCall(sql) : physical.prepareStatement(sql);
+                }
+
+                cached = new CachedStatement(call ? physical.prepareCall(sql) : physical.prepareStatement(sql));
+                cached.inUse = true;
+                entries.put(key, cached);
+                evictIfFull();
+                return cached.handle();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void evictIfFull() {
+            Iterator<CachedStatement> it = entries.values().iterator();
+            while (entries.size() > statementCacheSize && it.hasNext()) {
+                CachedStatement eldest = it.next();
+                if (eldest.inUse) {
+                    continue; // closed for real once its caller is done
+                }
+                it.remove();
+                statementEvictions.incrementAndGet();
+                eldest.closeQuietly();
+            }
+        }
+
+        void release(StatementHandle handle) {
+            lock.lock();
+            try {
+                CachedStatement cached = handle.cached;
+                if (handle.returned) {
+                    return;
+                }
+                handle.returned = true;
+                cached.inUse = false;
+                try {
+                    cached.physical.clearParameters();
+                    cached.physical.clearBatch();
+                } catch (SQLException e) {
+                    entries.values().remove(cached); // broken statement, prepare a fresh one next time
+                }
+                if (!entries.containsValue(cached)) {
+                    cached.closeQuietly();
+                } else {
+                    evictIfFull();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Statements the borrower forgot to close (usually on an error path) go back to the cache
+        void reclaim() {
+            lock.lock();
+            try {
+                List<StatementHandle> leftover = new ArrayList<>();
+                for (CachedStatement cached : entries.values()) {
+                    if (cached.inUse) {
+                        leftover.add(cached.owner);
+                    }
+                }
+                for (StatementHandle handle : leftover) {
+                    release(handle);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                for (CachedStatement cached : entries.values()) {
+                    cached.closeQuietly();
+                }
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private final class CachedStatement {
+            final PreparedStatement physical;
+            boolean inUse;
+            StatementHandle owner;
+
+            CachedStatement(PreparedStatement physical) {
+                this.physical = physical;
+            }
+
+            PreparedStatement handle() {
+                owner = new StatementHandle(this);
+                Class<?> type = physical instanceof CallableStatement ? CallableStatement.class : PreparedStatement.class;
+                return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class<?>[] { type }, owner);
+            }
+
+            void closeQuietly() {
+                try {
+                    physical.close();
+                } catch (SQLException ignored) {
+                    // connection may already be gone
+                }
+            }
+        }
+
+        private final class StatementHandle implements InvocationHandler {
+            private final CachedStatement cached;
+            private volatile boolean returned;
+
+            StatementHandle(CachedStatement cached) {
+                this.cached = cached;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        release(this);
+                        return null;
+                    case "isClosed":
+                        return returned || cached.physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        if (returned) {
+                            throw new SQLException("Statement has already been closed.");
+                        }
+                        try {
+                            return method.invoke(cached.physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        }
+    }
+
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        Handle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                    if ((method.getName().equals("prepareStatement") || method.getName().equals("prepareCall"))
+                            && args.length == 1 && statementCacheSize > 0) {
+                        return pooled.statements.prepare(pooled.physical, (String) args[0],
+                                method.getName().equals("prepareCall"));
+                    }
+                    try {
+                        return method.invoke(pooled.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,457 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+// One-to-many payments (salaries, vendor runs) from a single debit account. The file names the debit
+// account on its first line, then one credit per line; blank lines and lines starting with # are skipped:
+//
+//   from <accountNo|mobile>
+//   <accountNo|mobile> <amount>
+//
+// Every credit line is checked up front, then the total of the good ones is reserved on the debit
+// account with one WithdrawOperation, so the run either has the money or fails before paying anyone.
+// Credits are posted with DepositOperation, batchSize at a time on virtual threads (each one takes
+// only its own account's lock), and whatever could not be credited is put back on the debit account
+// at the end with one DepositOperation. Per-line results go to <file>.results.csv.
+//
+// Ledger rows: DISBURSEMENT (the reservation) and DISBURSE_REFUND on the debit account, TRANSFER_IN
+// from the debit account on every payee.
+//
+// Progress is forced to <file>.progress as the run goes, so a run that dies with money reserved can be
+// finished by running the same file again: it skips the reservation and the lines already settled,
+// and a completed file is never paid twice. Each step is logged before it is posted (intent) and
+// after it committed (outcome):
+//
+//   RESERVING <accountNo> <total>    RESERVED
+//   BATCH <line> <line> ...          PAID <line>  or  FAILED <line> <reason>
+//   REFUNDING <amount>               REFUNDED  or  REFUND_FAILED
+//   DONE
+//
+// An intent without an outcome means the posting may or may not have committed. Such steps are never
+// repeated automatically; the run reports them and the operator checks the ledger and appends the
+// outcome to the progress file.
+class Disbursement {
+    // One credit line and what became of it
+    private static final class Line {
+        final int lineNo;
+        final String target;
+        Account account;
+        long amount;
+        String error; // why the line was not paid
+        boolean credited;
+        boolean unknown; // an earlier run was posting it when it stopped
+
+        Line(int lineNo, String target) {
+            this.lineNo = lineNo;
+            this.target = target;
+        }
+    }
+
+    // Deposit/withdraw rules, ledgered with the disbursement's own type and counterparty
+    private static final class Leg extends BankingOperations {
+        private final BankingOperations rules;
+        private final Transaction.Type type;
+        private final int counterparty;
+
+        Leg(BankingOperations rules, Transaction.Type type, int counterparty) {
+            this.rules = rules;
+            this.type = type;
+            this.counterparty = counterparty;
+        }
+
+        @Override
+        public void performTransaction(Account account, long amount) throws Exception {
+            rules.performTransaction(account, amount);
+        }
+
+        @Override
+        public void performInDatabase(Connection con, int accountNo, long amount) throws SQLException {
+            rules.performInDatabase(con, accountNo, amount);
+        }
+
+        @Override
+        public Transaction.Type getTransactionType() {
+            return type;
+        }
+
+        @Override
+        public int getCounterparty() {
+            return counterparty;
+        }
+    }
+
+    static void run(Path file, int batchSize) throws Exception {
+        long start = System.nanoTime();
+        System.out.println("Disbursing " + file + "...");
+
+        // PARSE AND RESOLVE
+        long phaseStart = System.nanoTime();
+        Account source = null;
+        List<Line> lines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            int lineNo = 0;
+            while ((text = reader.readLine()) != null) {
+                lineNo++;
+                text = text.trim();
+                if (text.isEmpty() || text.startsWith("#")) {
+                    continue;
+                }
+                String[] args = text.split("\\s+");
+                if (source == null) {
+                    if (args.length != 2 || !args[0].equalsIgnoreCase("from")) {
+                        System.out.println("Line " + lineNo + ": expected \"from <accountNo|mobile>\" first.");
+                        return;
+                    }
+                    try {
+                        source = BankService.resolveAccount(args[1]);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Debit account: " + e.getMessage());
+                        return;
+                    }
+                    continue;
+                }
+                lines.add(parse(lineNo, args, source));
+            }
+        }
+        if (source == null) {
+            System.out.println("No debit account in " + file + ".");
+            return;
+        }
+        long total = 0;
+        List<Line> payable = new ArrayList<>();
+        for (Line line : lines) {
+            if (line.error == null) {
+                total = Math.addExact(total, line.amount);
+                payable.add(line);
+            }
+        }
+        Bank.reportPhase("parse and resolve", lines.size(), phaseStart);
+
+        Progress progress = new Progress(file.resolveSibling(file.getFileName() + ".progress"));
+        try {
+            run(file, batchSize, source, lines, payable, total, progress, start);
+        } finally {
+            progress.close();
+        }
+    }
+
+    private static void run(Path file, int batchSize, Account source, List<Line> lines, List<Line> payable, long total,
+                            Progress progress, long start) throws Exception {
+        if (progress.done) {
+            System.out.println(file + " was already paid, see " + progress.path + ". Nothing was posted.");
+            return;
+        }
+        String reservation = source.getAccountNo() + " " + total;
+        if (progress.reserving != null && !progress.reserving.equals(reservation)) {
+            System.out.println("An earlier run of " + file + " reserved " + progress.describeReservation()
+                    + " but the file now adds up to ₹" + Money.format(total) + " from account " + source.getAccountNo()
+                    + ". Nothing was posted; settle the earlier run with " + progress.path + " first.");
+            return;
+        }
+
+        // RESERVE
+        long phaseStart = System.nanoTime();
+        if (progress.reserving == null) {
+            if (payable.isEmpty()) {
+                System.out.println("Nothing to pay.");
+                writeResults(file, lines);
+                return;
+            }
+            progress.record("RESERVING " + reservation);
+            try {
+                Bank.postToAccount(source, new Leg(new WithdrawOperation(), Transaction.Type.DISBURSEMENT, 0), total);
+            } catch (Exception e) {
+                if (e instanceof SQLException && BankStorage.OUTCOME_UNKNOWN.equals(((SQLException) e).getSQLState())) {
+                    System.out.println(e.getMessage());
+                    printUnknownReservation(source, total, progress);
+                    return;
+                }
+                progress.delete(); // nothing was reserved, the next run starts from scratch
+                System.out.println("Could not reserve ₹" + Money.format(total) + " on account " + source.getAccountNo()
+                        + ": " + e.getMessage() + " Nobody was paid.");
+                return;
+            }
+            progress.record("RESERVED");
+            Bank.reportPhase("reserve ₹" + Money.format(total) + " on " + source.getAccountNo(), 1, phaseStart);
+        } else if (!progress.reserved) {
+            printUnknownReservation(source, total, progress);
+            return;
+        } else {
+            System.out.println("Resuming from " + progress.path + ", ₹" + Money.format(total) + " already reserved.");
+        }
+
+        // CREDIT
+        phaseStart = System.nanoTime();
+        List<Line> toPay = new ArrayList<>();
+        for (Line line : payable) {
+            if (progress.paid.contains(line.lineNo)) {
+                line.credited = true;
+            } else if (progress.failed.containsKey(line.lineNo)) {
+                line.error = progress.failed.get(line.lineNo);
+            } else if (progress.pending.contains(line.lineNo)) {
+                line.unknown = true;
+                line.error = "An earlier run stopped while crediting this line, check the payee's ledger.";
+            } else {
+                toPay.add(line);
+            }
+        }
+        int batches = 0;
+        for (int from = 0; from < toPay.size(); from += batchSize) {
+            List<Line> batch = toPay.subList(from, Math.min(toPay.size(), from + batchSize));
+            StringBuilder intent = new StringBuilder("BATCH");
+            for (Line line : batch) {
+                intent.append(' ').append(line.lineNo);
+            }
+            progress.record(intent.toString());
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Line line : batch) {
+                    executor.submit(() -> credit(line, source));
+                }
+            }
+            List<String> outcomes = new ArrayList<>(batch.size());
+            for (Line line : batch) {
+                if (line.credited) {
+                    outcomes.add("PAID " + line.lineNo);
+                } else if (!line.unknown) {
+                    outcomes.add("FAILED " + line.lineNo + " " + String.valueOf(line.error).replace('\n', ' '));
+                }
+            }
+            progress.record(outcomes.toArray(new String[0]));
+            batches++;
+        }
+        Bank.reportPhase("credit (" + batches + " batches of up to " + batchSize + ")", toPay.size(), phaseStart);
+
+        // REFUND
+        long credited = 0;
+        long refund = 0;
+        long held = 0;
+        int creditedLines = 0;
+        int unknownLines = 0;
+        for (Line line : payable) {
+            if (line.credited) {
+                credited += line.amount;
+                creditedLines++;
+            } else if (line.unknown) {
+                held += line.amount;
+                unknownLines++;
+            } else {
+                refund += line.amount;
+            }
+        }
+        boolean refundSettled = refund == 0 || progress.refunded;
+        if (!refundSettled && progress.refunding) {
+            System.out.println("An earlier run stopped while refunding ₹" + Money.format(refund) + " to account "
+                    + source.getAccountNo() + ". Check its ledger for a Disbursement refund row, then append"
+                    + " REFUNDED (it is there) or REFUND_FAILED (it is not) to " + progress.path + " and run again.");
+        } else if (!refundSettled) {
+            phaseStart = System.nanoTime();
+            progress.record("REFUNDING " + refund);
+            try {
+                Bank.postToAccount(source, new Leg(new DepositOperation(), Transaction.Type.DISBURSE_REFUND, 0), refund);
+                progress.record("REFUNDED");
+                refundSettled = true;
+                Bank.reportPhase("refund ₹" + Money.format(refund) + " to " + source.getAccountNo(), 1, phaseStart);
+            } catch (Exception e) {
+                boolean unknown = e instanceof SQLException
+                        && BankStorage.OUTCOME_UNKNOWN.equals(((SQLException) e).getSQLState());
+                if (!unknown) {
+                    progress.record("REFUND_FAILED");
+                }
+                System.out.println("REFUND FAILED: ₹" + Money.format(refund) + " reserved on account "
+                        + source.getAccountNo() + " was not paid out or returned: " + e.getMessage()
+                        + " Run the file again to retry" + (unknown ? " once the refund is settled in " + progress.path : "") + ".");
+            }
+        }
+        if (refundSettled && unknownLines == 0) {
+            progress.record("DONE");
+        }
+
+        Path results = writeResults(file, lines);
+        long elapsed = System.nanoTime() - start;
+        double seconds = elapsed / 1e9;
+        System.out.printf("Paid %d of %d lines, ₹%s credited, %d failed%s in %d ms (%.0f lines/s), see %s%n",
+                creditedLines, lines.size(), Money.format(credited), lines.size() - creditedLines,
+                refund > 0 ? " (₹" + Money.format(refund) + (refundSettled ? " returned)" : " not returned yet)") : "",
+                elapsed / 1_000_000, seconds > 0 ? lines.size() / seconds : 0, results);
+        if (unknownLines > 0) {
+            System.out.println("₹" + Money.format(held) + " is still held for " + unknownLines + " lines an earlier run"
+                    + " may have paid (UNKNOWN in the results). Check each payee's ledger, append PAID <line> or"
+                    + " FAILED <line> <reason> to " + progress.path + " and run again.");
+        }
+    }
+
+    private static void printUnknownReservation(Account source, long total, Progress progress) {
+        System.out.println("The reservation of ₹" + Money.format(total) + " on account " + source.getAccountNo()
+                + " may or may not have been posted. Nobody was paid. Check the account's ledger for a Disbursement"
+                + " row: if it is there append RESERVED to " + progress.path + " and run again to pay the lines,"
+                + " otherwise delete " + progress.path + " and run again.");
+    }
+
+    private static Line parse(int lineNo, String[] args, Account source) {
+        Line line = new Line(lineNo, args[0]);
+        if (args.length != 2) {
+            line.error = "Expected <accountNo|mobile> <amount>.";
+            return line;
+        }
+        try {
+            line.amount = Money.parse(args[1]);
+            if (line.amount <= 0) {
+                throw new IllegalArgumentException("Amount must be positive.");
+            }
+            line.account = BankService.resolveAccount(args[0]);
+            if (line.account.getAccountNo() == source.getAccountNo()) {
+                throw new IllegalArgumentException("Cannot transfer to same account.");
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            line.error = e.getMessage();
+        }
+        return line;
+    }
+
+    private static void credit(Line line, Account source) {
+        try {
+            Bank.postToAccount(line.account,
+                    new Leg(new DepositOperation(), Transaction.Type.TRANSFER_IN, source.getAccountNo()), line.amount);
+            line.credited = true;
+        } catch (Exception e) {
+            if (e instanceof SQLException && BankStorage.OUTCOME_UNKNOWN.equals(((SQLException) e).getSQLState())) {
+                line.unknown = true; // neither refunded nor retried, the operator settles it
+            }
+            line.error = e.getMessage();
+        }
+    }
+
+    private static Path writeResults(Path file, List<Line> lines) throws IOException {
+        Path path = file.resolveSibling(file.getFileName() + ".results.csv");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            writer.println("line,target,accountNo,amount,status,reason");
+            for (Line line : lines) {
+                writer.println(line.lineNo + "," + line.target + "," + (line.account == null ? "" : line.account.getAccountNo())
+                        + "," + Money.format(line.amount) + "," + (line.credited ? "PAID,"
+                        : (line.unknown ? "UNKNOWN" : "FAILED") + ",\"" + String.valueOf(line.error).replace("\"", "\"\"") + "\""));
+            }
+        }
+        return path;
+    }
+
+    // The progress log (see the class comment): what earlier runs recorded, and appends forced to disk
+    private static final class Progress {
+        final Path path;
+        String reserving; // "<accountNo> <total>" of the RESERVING record
+        boolean reserved;
+        final Set<Integer> pending = new HashSet<>(); // in a BATCH record, no outcome yet
+        final Set<Integer> paid = new HashSet<>();
+        final Map<Integer, String> failed = new HashMap<>();
+        boolean refunding;
+        boolean refunded;
+        boolean done;
+        private long length; // bytes of complete records
+        private FileChannel channel;
+
+        Progress(Path path) throws IOException {
+            this.path = path;
+            if (!Files.exists(path)) {
+                return;
+            }
+            String text = Files.readString(path, StandardCharsets.UTF_8);
+            // A record without its newline was cut short by a crash before it was forced, so it never took effect
+            text = text.substring(0, text.lastIndexOf('\n') + 1);
+            length = text.getBytes(StandardCharsets.UTF_8).length;
+            for (String record : text.split("\n")) {
+                if (!record.isEmpty()) {
+                    apply(record);
+                }
+            }
+        }
+
+        private void apply(String record) {
+            String[] fields = record.split(" ", 2);
+            String rest = fields.length > 1 ? fields[1] : "";
+            switch (fields[0]) {
+                case "RESERVING":
+                    reserving = rest;
+                    break;
+                case "RESERVED":
+                    reserved = true;
+                    break;
+                case "BATCH":
+                    for (String lineNo : rest.split(" ")) {
+                        pending.add(Integer.parseInt(lineNo));
+                    }
+                    break;
+                case "PAID":
+                    int lineNo = Integer.parseInt(rest.trim());
+                    pending.remove(lineNo);
+                    paid.add(lineNo);
+                    break;
+                case "FAILED":
+                    String[] failure = rest.split(" ", 2);
+                    lineNo = Integer.parseInt(failure[0]);
+                    pending.remove(lineNo);
+                    failed.put(lineNo, failure.length > 1 ? failure[1] : "Failed in an earlier run.");
+                    break;
+                case "REFUNDING":
+                    refunding = true;
+                    break;
+                case "REFUND_FAILED":
+                    refunding = false;
+                    break;
+                case "REFUNDED":
+                    refunding = false;
+                    refunded = true;
+                    break;
+                case "DONE":
+                    done = true;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record in " + path + ": " + record);
+            }
+        }
+
+        String describeReservation() {
+            String[] fields = reserving.split(" ");
+            return "₹" + Money.format(Long.parseLong(fields[1])) + " from account " + fields[0];
+        }
+
+        // Returns once the records are on disk
+        void record(String... records) throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.truncate(length);
+                channel.position(length);
+            }
+            StringBuilder text = new StringBuilder();
+            for (String record : records) {
+                text.append(record).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(path);
+        }
+
+        void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
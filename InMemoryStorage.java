@@ -0,0 +1,376 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+// Backend with no database at all: rows live in maps inside this process and are gone when it exits.
+// Meant for load tests and CI, so the application layer can be measured on its own.
+//
+// Rows are copies, separate from Bank's User and Account objects, and follow the tables' rules: the
+// UNIQUE identifiers and foreign keys are checked, every accounts write bumps the version, and a
+// conditional write on a stale version changes nothing. Each account row is guarded by its own monitor;
+// a transfer takes both in accountNo order, like the row locks transfer_funds takes in MySQL.
+class InMemoryStorage implements BankStorage {
+    private static final String INTEGRITY_VIOLATION = "23000"; // SQLState MySQL reports for key and foreign key violations
+
+    private static final class UserRow {
+        final int userId;
+        final String firstName;
+        final String lastName;
+        final String dob;
+        final String mobileNumber;
+        final String email;
+        final String aadhaar;
+        final String pan;
+        volatile String password;
+
+        UserRow(User user) {
+            this.userId = user.getUserId();
+            this.firstName = user.getFirstName();
+            this.lastName = user.getLastName();
+            this.dob = user.getDob().toString();
+            this.mobileNumber = user.getMobileNumber();
+            this.email = user.getEmail();
+            this.aadhaar = user.getAadhaar();
+            this.pan = user.getPan();
+            this.password = user.getPassword();
+        }
+    }
+
+    // Fields are only touched while holding the row's monitor
+    private static final class AccountRow {
+        final int accountNo;
+        final int userId;
+        final String accountType;
+        final String mpin;
+        long balance;
+        boolean hasCreditCard;
+        boolean hasDebitCard;
+        boolean hasLoan;
+        long version;
+        boolean deleted;
+        final List<Transaction> transactions = new ArrayList<>();
+        final List<String> schemes = new ArrayList<>(0);
+
+        AccountRow(Account account) {
+            this.accountNo = account.getAccountNo();
+            this.userId = account.getUserId();
+            this.accountType = account.getAccountType();
+            this.mpin = account.getMpin();
+            this.balance = account.getBalance();
+            this.hasCreditCard = account.hasCreditCard();
+            this.hasDebitCard = account.hasDebitCard();
+            this.hasLoan = account.hasLoan();
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, UserRow> users = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AccountRow> accounts = new ConcurrentHashMap<>();
+    // UNIQUE columns of the users table, claimed together under uniqueKeys' monitor
+    private final HashMap<String, Integer> uniqueKeys = new HashMap<>();
+
+    @Override
+    public void initialize() {
+        // nothing to create
+    }
+
+    @Override
+    public void loadAll(boolean withHistory) {
+        long phaseStart = System.nanoTime();
+        for (UserRow row : users.values()) {
+            Bank.registerUser(new User(row.userId, row.firstName, row.lastName, LocalDate.parse(row.dob),
+                    row.mobileNumber, row.email, row.aadhaar, row.pan, row.password));
+        }
+        Bank.reportPhase("users", users.size(), phaseStart);
+
+        phaseStart = System.nanoTime();
+        int rows = 0;
+        for (AccountRow row : accounts.values()) {
+            User owner = Bank.users.get(row.userId);
+            if (owner == null) {
+                continue;
+            }
+            Account account;
+            synchronized (row) {
+                account = new Account(row.accountNo, owner, row.accountType, row.balance, row.mpin);
+                account.setHasCreditCard(row.hasCreditCard);
+                account.setHasDebitCard(row.hasDebitCard);
+                account.setHasLoan(row.hasLoan);
+                account.setVersion(row.version);
+                if (withHistory) {
+                    copyHistory(row, account);
+                } else {
+                    account.setHydrated(false);
+                }
+            }
+            Bank.registerAccount(account);
+            rows++;
+        }
+        Bank.reportPhase("accounts", rows, phaseStart);
+    }
+
+    @Override
+    public void loadHistory(Account account) throws SQLException {
+        AccountRow row = row(account.getAccountNo());
+        synchronized (row) {
+            copyHistory(row, account);
+        }
+    }
+
+    @Override
+    public void loadHistory(Map<Integer, Account> accounts) {
+        for (Account account : accounts.values()) {
+            AccountRow row = this.accounts.get(account.getAccountNo());
+            if (row != null) {
+                synchronized (row) {
+                    copyHistory(row, account);
+                }
+            }
+        }
+    }
+
+    private static void copyHistory(AccountRow row, Account account) {
+        for (Transaction transaction : row.transactions) {
+            account.addTransaction(transaction);
+        }
+        for (String scheme : row.schemes) {
+            account.addScheme(scheme);
+        }
+    }
+
+    @Override
+    public void insertUser(User user) throws SQLException {
+        insertBatch(List.of(user), List.of());
+    }
+
+    @Override
+    public void updatePassword(int userId, String password) {
+        UserRow row = users.get(userId);
+        if (row != null) {
+            row.password = password;
+        }
+    }
+
+    @Override
+    public void insertAccount(Account account) throws SQLException {
+        insertBatch(List.of(), List.of(account));
+    }
+
+    // Every key is checked, against the stored rows and within the batch, before anything is written
+    @Override
+    public void insertBatch(List<User> newUsers, List<Account> newAccounts) throws SQLException {
+        synchronized (uniqueKeys) {
+            Map<String, Integer> claimed = new HashMap<>();
+            Set<Integer> batchUserIds = new HashSet<>();
+            for (User user : newUsers) {
+                if (users.containsKey(user.getUserId()) || !batchUserIds.add(user.getUserId())) {
+                    throw duplicate("PRIMARY", String.valueOf(user.getUserId()));
+                }
+                claim(claimed, "mobileNumber", user.getMobileNumber(), user.getUserId());
+                claim(claimed, "aadhaar", user.getAadhaar(), user.getUserId());
+                claim(claimed, "pan", user.getPan(), user.getUserId());
+            }
+            Set<Integer> batchAccountNos = new HashSet<>();
+            for (Account account : newAccounts) {
+                if (!users.containsKey(account.getUserId()) && !batchUserIds.contains(account.getUserId())) {
+                    throw new SQLException("Cannot add account " + account.getAccountNo() + ": user "
+                            + account.getUserId() + " does not exist.", INTEGRITY_VIOLATION);
+                }
+                if (accounts.containsKey(account.getAccountNo()) || !batchAccountNos.add(account.getAccountNo())) {
+                    throw duplicate("PRIMARY", String.valueOf(account.getAccountNo()));
+                }
+            }
+
+            uniqueKeys.putAll(claimed);
+            for (User user : newUsers) {
+                users.put(user.getUserId(), new UserRow(user));
+            }
+            for (Account account : newAccounts) {
+                accounts.put(account.getAccountNo(), new AccountRow(account));
+            }
+        }
+    }
+
+    private void claim(Map<String, Integer> claimed, String column, String value, int userId) throws SQLException {
+        if (value == null) {
+            return; // like MySQL, NULLs never collide in a UNIQUE column
+        }
+        String key = column + ":" + value;
+        if (uniqueKeys.containsKey(key) || claimed.putIfAbsent(key, userId) != null) {
+            throw duplicate(column, value);
+        }
+    }
+
+    @Override
+    public boolean postBalance(Account account, long expectedVersion, Transaction transaction) {
+        AccountRow row = accounts.get(account.getAccountNo());
+        if (row == null) {
+            return false;
+        }
+        synchronized (row) {
+            if (row.deleted || row.version != expectedVersion) {
+                return false;
+            }
+            row.balance = account.getBalance();
+            row.version++;
+            row.transactions.add(transaction);
+            return true;
+        }
+    }
+
+    @Override
+    public void applyBatch(Collection<Account> touched, List<Integer> rowAccounts, List<Transaction> rows,
+                           List<PendingCredit> opened, List<PendingCredit> settled) throws SQLException {
+        // Pending credits only matter across a restart, which nothing here survives
+        // Check every row first, nothing is written if one is missing
+        Map<Integer, AccountRow> batchRows = new HashMap<>();
+        for (Account account : touched) {
+            batchRows.put(account.getAccountNo(), row(account.getAccountNo()));
+        }
+        for (int accountNo : rowAccounts) {
+            if (!batchRows.containsKey(accountNo)) {
+                batchRows.put(accountNo, row(accountNo));
+            }
+        }
+        for (Account account : touched) {
+            AccountRow row = batchRows.get(account.getAccountNo());
+            synchronized (row) {
+                row.balance = account.getBalance();
+                row.version++;
+            }
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            AccountRow row = batchRows.get(rowAccounts.get(i));
+            synchronized (row) {
+                row.transactions.add(rows.get(i));
+            }
+        }
+    }
+
+    @Override
+    public int settlePendingCredits() {
+        return 0;
+    }
+
+    @Override
+    public int transfer(Account from, Account to, long amount, long timestamp, boolean checkVersions) {
+        AccountRow fromRow = accounts.get(from.getAccountNo());
+        AccountRow toRow = accounts.get(to.getAccountNo());
+        if (fromRow == null) {
+            return TRANSFER_FROM_CONFLICT;
+        }
+        if (toRow == null) {
+            return TRANSFER_TO_CONFLICT;
+        }
+        AccountRow first = fromRow.accountNo < toRow.accountNo ? fromRow : toRow;
+        AccountRow second = first == fromRow ? toRow : fromRow;
+        synchronized (first) {
+            synchronized (second) {
+                if (fromRow.deleted || (checkVersions && fromRow.version != from.getVersion())) {
+                    return TRANSFER_FROM_CONFLICT;
+                }
+                if (fromRow.balance < amount) {
+                    return TRANSFER_INSUFFICIENT;
+                }
+                if (toRow.deleted || (checkVersions && toRow.version != to.getVersion())) {
+                    return TRANSFER_TO_CONFLICT;
+                }
+                fromRow.balance -= amount;
+                toRow.balance = Math.addExact(toRow.balance, amount);
+                fromRow.version++;
+                toRow.version++;
+                fromRow.transactions.add(new Transaction(timestamp, Transaction.Type.TRANSFER_OUT,
+                        amount, toRow.accountNo, fromRow.balance));
+                toRow.transactions.add(new Transaction(timestamp, Transaction.Type.TRANSFER_IN,
+                        amount, fromRow.accountNo, toRow.balance));
+
+                from.setBalance(fromRow.balance);
+                to.setBalance(toRow.balance);
+                from.setVersion(fromRow.version);
+                to.setVersion(toRow.version);
+                return TRANSFER_OK;
+            }
+        }
+    }
+
+    @Override
+    public boolean updateFlags(Account account, long expectedVersion) {
+        AccountRow row = accounts.get(account.getAccountNo());
+        if (row == null) {
+            return false;
+        }
+        synchronized (row) {
+            if (row.deleted || row.version != expectedVersion) {
+                return false;
+            }
+            row.hasDebitCard = account.hasDebitCard();
+            row.hasCreditCard = account.hasCreditCard();
+            row.hasLoan = account.hasLoan();
+            row.version++;
+            return true;
+        }
+    }
+
+    @Override
+    public void refreshAccount(Account account, boolean includeBalance) throws SQLException {
+        AccountRow row = row(account.getAccountNo());
+        synchronized (row) {
+            if (includeBalance) {
+                account.setBalance(row.balance);
+            }
+            account.setVersion(row.version);
+            account.setHasCreditCard(row.hasCreditCard);
+            account.setHasDebitCard(row.hasDebitCard);
+            account.setHasLoan(row.hasLoan);
+        }
+    }
+
+    @Override
+    public void insertScheme(int accountNo, String scheme) throws SQLException {
+        AccountRow row = row(accountNo);
+        synchronized (row) {
+            row.schemes.add(scheme);
+        }
+    }
+
+    @Override
+    public boolean deleteAccount(int accountNo) {
+        AccountRow row = accounts.remove(accountNo);
+        if (row == null) {
+            return false;
+        }
+        // A writer that looked the row up just before the remove must not report success
+        synchronized (row) {
+            row.deleted = true;
+        }
+        return true;
+    }
+
+    @Override
+    public String statsReport() {
+        long transactions = 0;
+        for (AccountRow row : accounts.values()) {
+            synchronized (row) {
+                transactions += row.transactions.size();
+            }
+        }
+        return "In-memory storage: " + users.size() + " users, " + accounts.size() + " accounts, "
+                + transactions + " transactions";
+    }
+
+    @Override
+    public void shutdown() {
+        // nothing to close, the rows go with the process
+    }
+
+    private AccountRow row(int accountNo) throws SQLException {
+        AccountRow row = accounts.get(accountNo);
+        if (row == null) {
+            throw new SQLException("Account " + accountNo + " not found in database.");
+        }
+        return row;
+    }
+
+    private static SQLException duplicate(String key, String value) {
+        return new SQLException("Duplicate entry '" + value + "' for key '" + key + "'", INTEGRITY_VIOLATION);
+    }
+}
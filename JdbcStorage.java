@@ -0,0 +1,885 @@
+import java.time.LocalDate;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// One accountNo range of a partitioned startup load, filled by its own thread and merged afterwards
+class LoadPartition {
+    final int index;
+    final int low;
+    final int high;
+    final List<Account> accounts = new ArrayList<>();
+    int transactions;
+    int schemes;
+    long nanos;
+
+    LoadPartition(int index, int low, int high) {
+        this.index = index;
+        this.low = low;
+        this.high = high;
+    }
+
+    String report() {
+        int rows = accounts.size() + transactions + schemes;
+        double seconds = nanos / 1e9;
+        return String.format("  partition %d [%d..%d]: %d accounts, %d transactions, %d schemes in %d ms (%.0f rows/s)",
+                index, low, high, accounts.size(), transactions, schemes, nanos / 1_000_000,
+                seconds > 0 ? rows / seconds : 0);
+    }
+}
+
+// MySQL backend: the users, accounts, transactions and schemes tables, reached through a ConnectionPool.
+// The journal, snapshot catch-up and relative updates modes work on the same pool (Bank.pool).
+class JdbcStorage implements BankStorage {
+    static final String TRANSACTION_COLUMNS = "accountNo, ts, type, amount, counterparty, balanceAfter, transaction";
+    static final String INSERT_TRANSACTION_SQL =
+            "INSERT INTO transactions (accountNo, ts, type, amount, counterparty, balanceAfter) VALUES (?, ?, ?, ?, ?, ?)";
+    static final String INSERT_USER_SQL =
+            "INSERT INTO users (userId, firstName, lastName, dob, mobileNumber, email, aadhaar, pan, password) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String INSERT_ACCOUNT_SQL =
+            "INSERT INTO accounts (accountNo, userId, accountType, balance, hasCreditCard, hasDebitCard, hasLoan, mpin) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String VERSIONED_BALANCE_UPDATE_SQL =
+            "UPDATE accounts SET balance = ?, version = version + 1 WHERE accountNo = ? AND version = ?";
+    static final String INSERT_PENDING_CREDIT_SQL =
+            "INSERT INTO pending_credits (fromAccount, toAccount, amount, ts) VALUES (?, ?, ?, ?)";
+    static final String DELETE_PENDING_CREDIT_SQL =
+            "DELETE FROM pending_credits WHERE fromAccount = ? AND toAccount = ? AND amount = ? AND ts = ? LIMIT 1";
+    // transfer_funds(from, to, amount, ts, INOUT fromVersion, INOUT toVersion, OUT status, OUT fromBalance, OUT toBalance)
+    static final String TRANSFER_FUNDS_CALL = "{CALL transfer_funds(?, ?, ?, ?, ?, ?, ?, ?, ?)}";
+
+    private final ConnectionPool pool;
+    private final int loadPartitions; // accountNo ranges loaded concurrently by a full load, 1 = one streamed query
+
+    JdbcStorage(String url, String user, String password, int minSize, int maxSize, int statementCacheSize,
+                int loadPartitions) throws SQLException {
+        this.pool = new ConnectionPool(url, user, password, minSize, maxSize, 5_000, 60_000, statementCacheSize);
+        // Each partition needs its own connection, keep one back for the rest of the pool's users
+        this.loadPartitions = Math.min(loadPartitions, maxSize - 1);
+    }
+
+    ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        try (Connection con = pool.borrow()) {
+            createTables(con);
+        }
+    }
+
+    // TO CREATE TABLES (and bring older schemas up to date)
+    private static void createTables(Connection con) throws SQLException {
+        Statement statement = con.createStatement();
+
+        // Create users table (personal information)
+        String sql = "CREATE TABLE IF NOT EXISTS users (" +
+                "userId INTEGER PRIMARY KEY, " +
+                "firstName TEXT, " +
+                "lastName TEXT, " +
+                "dob TEXT, " +
+                "mobileNumber TEXT UNIQUE, " +
+                "email TEXT, " +
+                "aadhaar TEXT UNIQUE, " +
+                "pan TEXT UNIQUE, " +
+                "password TEXT ," +
+                "mpin TEXT, " +
+                // set by the database on every insert and change, BankSnapshot catches up from it
+                "updatedAt TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6))";
+        statement.execute(sql);
+
+        // Create accounts table (account-specific information)
+        sql = "CREATE TABLE IF NOT EXISTS accounts (" +
+                "accountNo INTEGER PRIMARY KEY, " +
+                "userId INTEGER, " +
+                "accountType TEXT, " +
+                "balance BIGINT, " + // paise
+                "hasCreditCard INTEGER, " +
+                "hasDebitCard INTEGER, " +
+                "hasLoan INTEGER, " +
+                "mpin TEXT, " +
+                "version BIGINT NOT NULL DEFAULT 0, " + // bumped by every update, see Bank.onVersionConflict
+                // set by the database on every insert and change, BankSnapshot catches up from it
+                "updatedAt TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6), " +
+                "FOREIGN KEY (userId) REFERENCES users(userId) ON DELETE CASCADE)";
+        statement.execute(sql);
+
+        // Older databases stored balance as REAL rupees, convert them to whole paise once. The paise go
+        // into a new column and are swapped in with one ALTER (atomic DDL), so a start that crashed
+        // half way repeats the copy from the untouched rupees instead of scaling the balances twice.
+        ResultSet columns = con.getMetaData().getColumns(null, null, "accounts", "balance");
+        if (columns.next() && !columns.getString("TYPE_NAME").toUpperCase().startsWith("BIGINT")) {
+            if (!hasColumn(con, "accounts", "balance_paise")) {
+                statement.execute("ALTER TABLE accounts ADD COLUMN balance_paise BIGINT AFTER balance");
+            }
+            statement.executeUpdate("UPDATE accounts SET balance_paise = ROUND(balance * 100)");
+            statement.execute("ALTER TABLE accounts RENAME COLUMN balance TO balance_rupees, " +
+                    "RENAME COLUMN balance_paise TO balance");
+        }
+        columns.close();
+        if (hasColumn(con, "accounts", "balance_rupees")) {
+            statement.execute("ALTER TABLE accounts DROP COLUMN balance_rupees");
+            System.out.println("Converted account balances to paise.");
+        }
+
+        columns = con.getMetaData().getColumns(null, null, "accounts", "version");
+        if (!columns.next()) {
+            statement.execute("ALTER TABLE accounts ADD COLUMN version BIGINT NOT NULL DEFAULT 0");
+        }
+        columns.close();
+        for (String table : new String[] {"users", "accounts"}) {
+            if (!hasColumn(con, table, "updatedAt")) {
+                statement.execute("ALTER TABLE " + table + " ADD COLUMN updatedAt TIMESTAMP(6) NOT NULL " +
+                        "DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6)");
+            }
+        }
+
+        // Create transactions table (child table)
+        sql = "CREATE TABLE IF NOT EXISTS transactions (" +
+                "accountNo INTEGER, " +
+                "ts BIGINT, " +            // epoch milliseconds
+                "type VARCHAR(16), " +
+                "amount BIGINT, " +        // paise
+                "counterparty INTEGER, " + // other account of a transfer
+                "balanceAfter BIGINT, " +  // paise
+                "transaction TEXT, " +     // legacy free-text rows only
+                "INDEX idx_transactions_account_ts (accountNo, ts), " +
+                "FOREIGN KEY (accountNo) REFERENCES accounts(accountNo) ON DELETE CASCADE)";
+        statement.execute(sql);
+
+        // Older databases only have the free-text column, add the typed columns next to it
+        columns = con.getMetaData().getColumns(null, null, "transactions", "ts");
+        if (!columns.next()) {
+            statement.execute("ALTER TABLE transactions " +
+                    "ADD COLUMN ts BIGINT, ADD COLUMN type VARCHAR(16), ADD COLUMN amount BIGINT, " +
+                    "ADD COLUMN counterparty INTEGER, ADD COLUMN balanceAfter BIGINT, " +
+                    "ADD INDEX idx_transactions_account_ts (accountNo, ts)");
+            System.out.println("Added typed columns to transactions table.");
+        }
+        columns.close();
+
+        // Single round-trip transfers, see transfer(). Expected versions may be NULL to skip
+        // the version check (relative updates mode).
+        ResultSet routines = statement.executeQuery("SELECT 1 FROM information_schema.ROUTINES " +
+                "WHERE ROUTINE_SCHEMA = DATABASE() AND ROUTINE_NAME = 'transfer_funds'");
+        boolean haveTransferProcedure = routines.next();
+        routines.close();
+        if (!haveTransferProcedure) {
+            statement.execute("CREATE PROCEDURE transfer_funds(" +
+                    "IN p_from INT, IN p_to INT, IN p_amount BIGINT, IN p_ts BIGINT, " +
+                    "INOUT p_from_version BIGINT, INOUT p_to_version BIGINT, " +
+                    "OUT p_status INT, OUT p_from_balance BIGINT, OUT p_to_balance BIGINT) " +
+                    "BEGIN " +
+                    "  DECLARE EXIT HANDLER FOR SQLEXCEPTION BEGIN ROLLBACK; RESIGNAL; END; " +
+                    "  SET p_status = 0; " +
+                    "  START TRANSACTION; " +
+                    "  UPDATE accounts SET balance = balance - p_amount, version = version + 1 " +
+                    "    WHERE accountNo = p_from AND balance >= p_amount " +
+                    "    AND (p_from_version IS NULL OR version = p_from_version); " +
+                    "  IF ROW_COUNT() = 0 THEN " +
+                    "    SET p_status = IF(p_from_version IS NULL OR EXISTS (SELECT 1 FROM accounts " +
+                    "      WHERE accountNo = p_from AND version = p_from_version), 1, 2); " +
+                    "  ELSE " +
+                    "    UPDATE accounts SET balance = balance + p_amount, version = version + 1 " +
+                    "      WHERE accountNo = p_to AND (p_to_version IS NULL OR version = p_to_version); " +
+                    "    IF ROW_COUNT() = 0 THEN SET p_status = 3; END IF; " +
+                    "  END IF; " +
+                    "  IF p_status = 0 THEN " +
+                    "    SELECT balance, version INTO p_from_balance, p_from_version FROM accounts WHERE accountNo = p_from; " +
+                    "    SELECT balance, version INTO p_to_balance, p_to_version FROM accounts WHERE accountNo = p_to; " +
+                    "    INSERT INTO transactions (accountNo, ts, type, amount, counterparty, balanceAfter) VALUES " +
+                    "      (p_from, p_ts, 'TRANSFER_OUT', p_amount, p_to, p_from_balance), " +
+                    "      (p_to, p_ts, 'TRANSFER_IN', p_amount, p_from, p_to_balance); " +
+                    "    COMMIT; " +
+                    "  ELSE " +
+                    "    ROLLBACK; " +
+                    "  END IF; " +
+                    "END");
+        }
+
+        // Last journal frame applied to the tables, written in the same transaction as the frames
+        statement.execute("CREATE TABLE IF NOT EXISTS journal_checkpoint (id INTEGER PRIMARY KEY, lastSeq BIGINT)");
+
+        // Cross-shard transfer credits committed debits are still owed, see AccountShards
+        statement.execute("CREATE TABLE IF NOT EXISTS pending_credits (" +
+                "fromAccount INTEGER, " +
+                "toAccount INTEGER, " +
+                "amount BIGINT, " + // paise
+                "ts BIGINT, " +     // the debit's
+                "INDEX (fromAccount, ts))");
+
+        // Create schemes table (child table)
+        sql = "CREATE TABLE IF NOT EXISTS schemes (" +
+                "accountNo INTEGER, " +
+                "scheme TEXT, " +
+                "FOREIGN KEY (accountNo) REFERENCES accounts(accountNo) ON DELETE CASCADE)";
+        statement.execute(sql);
+
+        statement.close();
+    }
+
+    // LOAD ACCOUNTS FROM DATABASE
+    // Every table is read with one streamed query, so startup cost no longer grows with round trips per account
+    @Override
+    public void loadAll(boolean withHistory) throws Exception {
+        try (Connection con = pool.borrow()) {
+            // Load users
+            long phaseStart = System.nanoTime();
+            int rows = 0;
+            Statement statement = createStreamingStatement(con);
+            ResultSet rs = statement.executeQuery("SELECT * FROM users");
+            while (rs.next()) {
+                Bank.registerUser(readUser(rs));
+                rows++;
+            }
+            rs.close();
+            statement.close();
+            Bank.reportPhase("users", rows, phaseStart);
+
+            if (loadPartitions > 1) {
+                loadAccountsPartitioned(con, withHistory);
+                return;
+            }
+
+            // Load accounts
+            phaseStart = System.nanoTime();
+            rows = 0;
+            statement = createStreamingStatement(con);
+            rs = statement.executeQuery("SELECT * FROM accounts");
+            while (rs.next()) {
+                User owner = Bank.users.get(rs.getInt("userId"));
+                if (owner == null) {
+                    continue; // orphan row, the users table is the source of truth for owners
+                }
+                Bank.registerAccount(readAccount(rs, owner));
+                rows++;
+            }
+            rs.close();
+            statement.close();
+            Bank.reportPhase("accounts", rows, phaseStart);
+
+            if (withHistory) {
+                loadHistoryInBulk(con, Bank.accountsByNo);
+            } else {
+                // History and schemes are fetched per account on first access
+                for (Account account : Bank.accountsByNo.values()) {
+                    account.setHydrated(false);
+                }
+                System.out.println("  transactions, schemes: deferred (lazy mode)");
+            }
+        }
+    }
+
+    // PARTITIONED LOAD
+    // Accounts (and their history unless lazy) are split into equal accountNo ranges, each streamed
+    // on its own pooled connection from a virtual thread. Partitions only fill their own Account
+    // objects; they are put into the shared maps on this thread once all of them are done.
+    private void loadAccountsPartitioned(Connection con, boolean withHistory) throws Exception {
+        long phaseStart = System.nanoTime();
+        Statement statement = con.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT MIN(accountNo), MAX(accountNo) FROM accounts");
+        rs.next();
+        boolean empty = rs.getObject(1) == null;
+        int min = rs.getInt(1);
+        int max = rs.getInt(2);
+        rs.close();
+        statement.close();
+        if (empty) {
+            Bank.reportPhase("accounts", 0, phaseStart);
+            return;
+        }
+
+        long step = ((long) max - min) / loadPartitions + 1;
+        List<Future<LoadPartition>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < loadPartitions && min + i * step <= max; i++) {
+                LoadPartition partition = new LoadPartition(i + 1, (int) (min + i * step),
+                        (int) Math.min(max, min + (i + 1) * step - 1));
+                results.add(executor.submit(() -> loadPartition(partition, withHistory)));
+            }
+        }
+
+        int accounts = 0;
+        int transactions = 0;
+        int schemes = 0;
+        for (Future<LoadPartition> result : results) {
+            LoadPartition partition;
+            try {
+                partition = result.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            for (Account account : partition.accounts) {
+                Bank.registerAccount(account);
+            }
+            accounts += partition.accounts.size();
+            transactions += partition.transactions;
+            schemes += partition.schemes;
+            System.out.println(partition.report());
+        }
+        Bank.reportPhase("accounts, transactions, schemes (" + results.size() + " partitions)",
+                accounts + transactions + schemes, phaseStart);
+        if (!withHistory) {
+            System.out.println("  transactions, schemes: deferred (lazy mode)");
+        }
+    }
+
+    private LoadPartition loadPartition(LoadPartition partition, boolean withHistory) throws SQLException {
+        long start = System.nanoTime();
+        Map<Integer, Account> accounts = new HashMap<>();
+        try (Connection con = pool.borrow()) {
+            PreparedStatement ps = prepareStreaming(con, "SELECT * FROM accounts WHERE accountNo BETWEEN ? AND ?", partition);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                User owner = Bank.users.get(rs.getInt("userId"));
+                if (owner == null) {
+                    continue; // orphan row, the users table is the source of truth for owners
+                }
+                Account account = readAccount(rs, owner);
+                account.setHydrated(withHistory);
+                accounts.put(account.getAccountNo(), account);
+                partition.accounts.add(account);
+            }
+            rs.close();
+            ps.close();
+
+            if (withHistory) {
+                // Served from idx_transactions_account_ts, so each account's rows arrive oldest first
+                ps = prepareStreaming(con, "SELECT " + TRANSACTION_COLUMNS + " FROM transactions " +
+                        "WHERE accountNo BETWEEN ? AND ? ORDER BY accountNo, ts", partition);
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    Account account = accounts.get(rs.getInt("accountNo"));
+                    if (account != null) {
+                        account.addTransaction(readTransaction(rs));
+                        partition.transactions++;
+                    }
+                }
+                rs.close();
+                ps.close();
+
+                ps = prepareStreaming(con, "SELECT accountNo, scheme FROM schemes WHERE accountNo BETWEEN ? AND ?", partition);
+                rs = ps.executeQuery();
+                while (rs.next()) {
+                    Account account = accounts.get(rs.getInt("accountNo"));
+                    if (account != null) {
+                        account.addScheme(rs.getString("scheme"));
+                        partition.schemes++;
+                    }
+                }
+                rs.close();
+                ps.close();
+            }
+        }
+        partition.nanos = System.nanoTime() - start;
+        return partition;
+    }
+
+    private static PreparedStatement prepareStreaming(Connection con, String sql, LoadPartition partition)
+            throws SQLException {
+        PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(Integer.MIN_VALUE); // MySQL driver: stream row by row
+        ps.setInt(1, partition.low);
+        ps.setInt(2, partition.high);
+        return ps;
+    }
+
+    // LAZY LOAD: read one account's history and schemes
+    @Override
+    public void loadHistory(Account account) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            // Only the rows the ring keeps, newest first off idx_transactions_account_ts (legacy rows have
+            // no ts and sort last, they are older than every typed row)
+            PreparedStatement ps = con.prepareStatement("SELECT " + TRANSACTION_COLUMNS + " FROM transactions " +
+                    "WHERE accountNo = ? ORDER BY ts DESC LIMIT ?");
+            ps.setInt(1, account.getAccountNo());
+            ps.setInt(2, account.getHistoryCapacity());
+            ResultSet rs = ps.executeQuery();
+            List<Transaction> newestFirst = new ArrayList<>();
+            while (rs.next()) {
+                newestFirst.add(readTransaction(rs));
+            }
+            rs.close();
+            ps.close();
+            for (int i = newestFirst.size() - 1; i >= 0; i--) {
+                account.addTransaction(newestFirst.get(i));
+            }
+
+            ps = con.prepareStatement("SELECT scheme FROM schemes WHERE accountNo = ?");
+            ps.setInt(1, account.getAccountNo());
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                account.addScheme(rs.getString("scheme"));
+            }
+            rs.close();
+            ps.close();
+        }
+    }
+
+    @Override
+    public void loadHistory(Map<Integer, Account> accounts) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            loadHistoryInBulk(con, accounts);
+        }
+    }
+
+    // Read transactions and schemes for the given accounts with one streamed query per table
+    static void loadHistoryInBulk(Connection con, Map<Integer, Account> accounts) throws SQLException {
+        // Each account's rows oldest first, so its ring ends up with the newest ones. The order has to be
+        // asked for, InnoDB gives no insertion order; (accountNo, ts) is idx_transactions_account_ts.
+        long phaseStart = System.nanoTime();
+        int rows = 0;
+        Statement statement = createStreamingStatement(con);
+        ResultSet rs = statement.executeQuery("SELECT " + TRANSACTION_COLUMNS + " FROM transactions ORDER BY accountNo, ts");
+        while (rs.next()) {
+            Account account = accounts.get(rs.getInt("accountNo"));
+            if (account != null) {
+                account.addTransaction(readTransaction(rs));
+                rows++;
+            }
+        }
+        rs.close();
+        statement.close();
+        Bank.reportPhase("transactions", rows, phaseStart);
+
+        phaseStart = System.nanoTime();
+        rows = 0;
+        statement = createStreamingStatement(con);
+        rs = statement.executeQuery("SELECT accountNo, scheme FROM schemes");
+        while (rs.next()) {
+            Account account = accounts.get(rs.getInt("accountNo"));
+            if (account != null) {
+                account.addScheme(rs.getString("scheme"));
+                rows++;
+            }
+        }
+        rs.close();
+        statement.close();
+        Bank.reportPhase("schemes", rows, phaseStart);
+    }
+
+    @Override
+    public void insertUser(User user) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            PreparedStatement ps = con.prepareStatement(INSERT_USER_SQL);
+            bindUser(ps, user);
+            ps.executeUpdate();
+            ps.close();
+        }
+    }
+
+    @Override
+    public void updatePassword(int userId, String password) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            PreparedStatement ps = con.prepareStatement("UPDATE users SET password = ? WHERE userId = ?");
+            ps.setString(1, password);
+            ps.setInt(2, userId);
+            ps.executeUpdate();
+            ps.close();
+        }
+    }
+
+    @Override
+    public void insertAccount(Account account) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            PreparedStatement ps = con.prepareStatement(INSERT_ACCOUNT_SQL);
+            bindAccount(ps, account);
+            ps.executeUpdate();
+            ps.close();
+        }
+    }
+
+    // Two JDBC batches in one transaction (rewriteBatchedStatements turns each into multi-row INSERTs)
+    @Override
+    public void insertBatch(List<User> users, List<Account> accounts) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement userInsert = con.prepareStatement(INSERT_USER_SQL);
+                 PreparedStatement accountInsert = con.prepareStatement(INSERT_ACCOUNT_SQL)) {
+                for (User user : users) {
+                    bindUser(userInsert, user);
+                    userInsert.addBatch();
+                }
+                userInsert.executeBatch();
+
+                for (Account account : accounts) {
+                    bindAccount(accountInsert, account);
+                    accountInsert.addBatch();
+                }
+                accountInsert.executeBatch();
+                con.commit();
+            } catch (SQLException e) {
+                try {
+                    con.rollback();
+                } catch (SQLException ignored) {
+                    // the pool discards connections it cannot reset
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void bindUser(PreparedStatement ps, User user) throws SQLException {
+        ps.setInt(1, user.getUserId());
+        ps.setString(2, user.getFirstName());
+        ps.setString(3, user.getLastName());
+        ps.setString(4, user.getDob().toString());
+        ps.setString(5, user.getMobileNumber());
+        ps.setString(6, user.getEmail());
+        ps.setString(7, user.getAadhaar());
+        ps.setString(8, user.getPan());
+        ps.setString(9, user.getPassword());
+    }
+
+    private static void bindAccount(PreparedStatement ps, Account account) throws SQLException {
+        ps.setInt(1, account.getAccountNo());
+        ps.setInt(2, account.getUserId());
+        ps.setString(3, account.getAccountType());
+        ps.setLong(4, account.getBalance());
+        ps.setInt(5, account.hasCreditCard() ? 1 : 0);
+        ps.setInt(6, account.hasDebitCard() ? 1 : 0);
+        ps.setInt(7, account.hasLoan() ? 1 : 0);
+        ps.setString(8, account.getMpin());
+    }
+
+    // Balance and ledger row commit together, a failed INSERT must not leave the new balance behind
+    @Override
+    public boolean postBalance(Account account, long expectedVersion, Transaction transaction) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            con.setAutoCommit(false);
+            try {
+                PreparedStatement ps = con.prepareStatement(VERSIONED_BALANCE_UPDATE_SQL);
+                ps.setLong(1, account.getBalance());
+                ps.setInt(2, account.getAccountNo());
+                ps.setLong(3, expectedVersion);
+                int rows = ps.executeUpdate();
+                ps.close();
+                if (rows == 0) {
+                    con.rollback();
+                    return false;
+                }
+
+                // Update database transaction history
+                ps = con.prepareStatement(INSERT_TRANSACTION_SQL);
+                bindTransaction(ps, account.getAccountNo(), transaction);
+                ps.executeUpdate();
+                ps.close();
+                con.commit();
+                return true;
+            } catch (SQLException e) {
+                try {
+                    con.rollback();
+                } catch (SQLException rollbackFailure) {
+                    // Lost the connection around the commit, the posting may or may not be in the table
+                    SQLException unknown = new SQLException("Posting to account " + account.getAccountNo()
+                            + " may not have been saved: " + e.getMessage(), OUTCOME_UNKNOWN, e);
+                    unknown.addSuppressed(rollbackFailure);
+                    throw unknown;
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void applyBatch(Collection<Account> accounts, List<Integer> rowAccounts, List<Transaction> rows,
+                           List<PendingCredit> opened, List<PendingCredit> settled) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement update = con.prepareStatement(
+                    "UPDATE accounts SET balance = ?, version = version + 1 WHERE accountNo = ?");
+                 PreparedStatement insert = con.prepareStatement(INSERT_TRANSACTION_SQL);
+                 PreparedStatement open = con.prepareStatement(INSERT_PENDING_CREDIT_SQL);
+                 PreparedStatement settle = con.prepareStatement(DELETE_PENDING_CREDIT_SQL)) {
+                for (Account account : accounts) {
+                    update.setLong(1, account.getBalance());
+                    update.setInt(2, account.getAccountNo());
+                    update.addBatch();
+                }
+                update.executeBatch();
+
+                for (int i = 0; i < rows.size(); i++) {
+                    bindTransaction(insert, rowAccounts.get(i), rows.get(i));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+
+                if (!opened.isEmpty()) {
+                    for (PendingCredit credit : opened) {
+                        bindPendingCredit(open, credit);
+                        open.addBatch();
+                    }
+                    open.executeBatch();
+                }
+                if (!settled.isEmpty()) {
+                    for (PendingCredit credit : settled) {
+                        bindPendingCredit(settle, credit);
+                        settle.addBatch();
+                    }
+                    settle.executeBatch();
+                }
+                con.commit();
+            } catch (SQLException e) {
+                try {
+                    con.rollback();
+                } catch (SQLException ignored) {
+                    // the pool discards connections it cannot reset
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Identical rows mean the same money owed, so settling deletes any one of them
+    private static void bindPendingCredit(PreparedStatement ps, PendingCredit credit) throws SQLException {
+        ps.setInt(1, credit.fromAccountNo);
+        ps.setInt(2, credit.toAccountNo);
+        ps.setLong(3, credit.amount);
+        ps.setLong(4, credit.timestamp);
+    }
+
+    // Each pending credit is finished in its own transaction: the receiver's balance and TRANSFER_IN row,
+    // or the sender's balance and REVERSAL row when the receiver no longer exists, and the pending row
+    // deleted. A credit with neither account left stays in the table and is reported.
+    @Override
+    public int settlePendingCredits() throws SQLException {
+        try (Connection con = pool.borrow()) {
+            List<PendingCredit> pending = new ArrayList<>();
+            Statement statement = con.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT fromAccount, toAccount, amount, ts FROM pending_credits");
+            while (rs.next()) {
+                pending.add(new PendingCredit(rs.getInt(1), rs.getInt(2), rs.getLong(3), rs.getLong(4)));
+            }
+            rs.close();
+            statement.close();
+
+            int settled = 0;
+            for (PendingCredit credit : pending) {
+                con.setAutoCommit(false);
+                try (PreparedStatement update = con.prepareStatement(
+                        "UPDATE accounts SET balance = balance + ?, version = version + 1 WHERE accountNo = ?");
+                     PreparedStatement select = con.prepareStatement("SELECT balance FROM accounts WHERE accountNo = ?");
+                     PreparedStatement insert = con.prepareStatement(INSERT_TRANSACTION_SQL);
+                     PreparedStatement delete = con.prepareStatement(DELETE_PENDING_CREDIT_SQL)) {
+                    int accountNo = credit.toAccountNo;
+                    Transaction.Type type = Transaction.Type.TRANSFER_IN;
+                    int counterparty = credit.fromAccountNo;
+                    update.setLong(1, credit.amount);
+                    update.setInt(2, accountNo);
+                    if (update.executeUpdate() == 0) {
+                        accountNo = credit.fromAccountNo;
+                        type = Transaction.Type.REVERSAL;
+                        counterparty = credit.toAccountNo;
+                        update.setInt(2, accountNo);
+                        if (update.executeUpdate() == 0) {
+                            con.rollback();
+                            System.out.println("Pending credit of " + Money.format(credit.amount) + " from account " +
+                                    credit.fromAccountNo + " to " + credit.toAccountNo + ": neither account exists.");
+                            continue;
+                        }
+                    }
+                    select.setInt(1, accountNo);
+                    rs = select.executeQuery();
+                    rs.next();
+                    long balanceAfter = rs.getLong(1);
+                    rs.close();
+                    bindTransaction(insert, accountNo, new Transaction(System.currentTimeMillis(), type,
+                            credit.amount, counterparty, balanceAfter));
+                    insert.executeUpdate();
+                    bindPendingCredit(delete, credit);
+                    delete.executeUpdate();
+                    con.commit();
+                    settled++;
+                } catch (SQLException e) {
+                    try {
+                        con.rollback();
+                    } catch (SQLException ignored) {
+                        // the pool discards connections it cannot reset
+                    }
+                    throw e;
+                } finally {
+                    con.setAutoCommit(true);
+                }
+            }
+            return settled;
+        }
+    }
+
+    // One round trip to transfer_funds. On success the new balances and versions from the OUT
+    // parameters are copied into both accounts; otherwise nothing was changed in the database.
+    @Override
+    public int transfer(Account fromAccount, Account toAccount, long amount, long timestamp,
+                        boolean checkVersions) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            CallableStatement cst = con.prepareCall(TRANSFER_FUNDS_CALL);
+            try {
+                cst.setInt(1, fromAccount.getAccountNo());
+                cst.setInt(2, toAccount.getAccountNo());
+                cst.setLong(3, amount);
+                cst.setLong(4, timestamp);
+                if (checkVersions) {
+                    cst.setLong(5, fromAccount.getVersion());
+                    cst.setLong(6, toAccount.getVersion());
+                } else {
+                    cst.setNull(5, Types.BIGINT);
+                    cst.setNull(6, Types.BIGINT);
+                }
+                cst.registerOutParameter(5, Types.BIGINT);
+                cst.registerOutParameter(6, Types.BIGINT);
+                cst.registerOutParameter(7, Types.INTEGER);
+                cst.registerOutParameter(8, Types.BIGINT);
+                cst.registerOutParameter(9, Types.BIGINT);
+                cst.execute();
+
+                int status = cst.getInt(7);
+                if (status == TRANSFER_OK) {
+                    fromAccount.setBalance(cst.getLong(8));
+                    toAccount.setBalance(cst.getLong(9));
+                    fromAccount.setVersion(cst.getLong(5));
+                    toAccount.setVersion(cst.getLong(6));
+                }
+                return status;
+            } catch (SQLException e) {
+                if ("40001".equals(e.getSQLState())) {
+                    return TRANSFER_FROM_CONFLICT; // deadlock victim against another instance, retry like a conflict
+                }
+                throw e;
+            } finally {
+                cst.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean updateFlags(Account account, long expectedVersion) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            PreparedStatement ps = con.prepareStatement("UPDATE accounts SET hasDebitCard = ?, hasCreditCard = ?, " +
+                    "hasLoan = ?, version = version + 1 WHERE accountNo = ? AND version = ?");
+            ps.setInt(1, account.hasDebitCard() ? 1 : 0);
+            ps.setInt(2, account.hasCreditCard() ? 1 : 0);
+            ps.setInt(3, account.hasLoan() ? 1 : 0);
+            ps.setInt(4, account.getAccountNo());
+            ps.setLong(5, expectedVersion);
+            int rows = ps.executeUpdate();
+            ps.close();
+            return rows > 0;
+        }
+    }
+
+    @Override
+    public void refreshAccount(Account account, boolean includeBalance) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            refreshAccount(con, account, includeBalance);
+        }
+    }
+
+    // Same, on a connection the caller already has a transaction open on (relative updates mode)
+    static void refreshAccount(Connection con, Account account, boolean includeBalance) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(
+                "SELECT balance, version, hasCreditCard, hasDebitCard, hasLoan FROM accounts WHERE accountNo = ?");
+        ps.setInt(1, account.getAccountNo());
+        ResultSet rs = ps.executeQuery();
+        try {
+            if (!rs.next()) {
+                throw new SQLException("Account " + account.getAccountNo() + " not found in database.");
+            }
+            if (includeBalance) {
+                account.setBalance(rs.getLong("balance"));
+            }
+            account.setVersion(rs.getLong("version"));
+            account.setHasCreditCard(rs.getInt("hasCreditCard") == 1);
+            account.setHasDebitCard(rs.getInt("hasDebitCard") == 1);
+            account.setHasLoan(rs.getInt("hasLoan") == 1);
+        } finally {
+            rs.close();
+            ps.close();
+        }
+    }
+
+    @Override
+    public void insertScheme(int accountNo, String scheme) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            PreparedStatement ps = con.prepareStatement("INSERT INTO schemes VALUES (?, ?)");
+            ps.setInt(1, accountNo);
+            ps.setString(2, scheme);
+            ps.executeUpdate();
+            ps.close();
+        }
+    }
+
+    // The delete_Account procedure is maintained in the database, not created by createTables
+    @Override
+    public boolean deleteAccount(int accountNo) throws SQLException {
+        try (Connection con = pool.borrow()) {
+            CallableStatement cst = con.prepareCall("{CALL delete_Account(?)}");
+            cst.setInt(1, accountNo);
+            int r = cst.executeUpdate();
+            cst.close();
+            return r > 0;
+        }
+    }
+
+    @Override
+    public String statsReport() {
+        return pool.statsReport();
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static boolean hasColumn(Connection con, String table, String column) throws SQLException {
+        try (ResultSet columns = con.getMetaData().getColumns(null, null, table, column)) {
+            return columns.next();
+        }
+    }
+
+    // Build a user from a users row
+    static User readUser(ResultSet rs) throws SQLException {
+        return new User(rs.getInt("userId"), rs.getString("firstName"), rs.getString("lastName"),
+                LocalDate.parse(rs.getString("dob")), rs.getString("mobileNumber"), rs.getString("email"),
+                rs.getString("aadhaar"), rs.getString("pan"), rs.getString("password"));
+    }
+
+    // Build an account from an accounts row
+    static Account readAccount(ResultSet rs, User owner) throws SQLException {
+        Account account = new Account(rs.getInt("accountNo"), owner, rs.getString("accountType"),
+                rs.getLong("balance"), rs.getString("mpin"));
+        account.setHasCreditCard(rs.getInt("hasCreditCard") == 1);
+        account.setHasDebitCard(rs.getInt("hasDebitCard") == 1);
+        account.setHasLoan(rs.getInt("hasLoan") == 1);
+        account.setVersion(rs.getLong("version"));
+        return account;
+    }
+
+    // Bind a transaction to INSERT_TRANSACTION_SQL
+    static void bindTransaction(PreparedStatement ps, int accountNo, Transaction transaction) throws SQLException {
+        ps.setInt(1, accountNo);
+        ps.setLong(2, transaction.getTimestamp());
+        ps.setString(3, transaction.getType().name());
+        ps.setLong(4, transaction.getAmount());
+        ps.setInt(5, transaction.getCounterparty());
+        ps.setLong(6, transaction.getBalanceAfter());
+    }
+
+    // Build a transaction from a row selected with TRANSACTION_COLUMNS
+    private static Transaction readTransaction(ResultSet rs) throws SQLException {
+        String type = rs.getString("type");
+        if (type == null) {
+            return Transaction.legacy(rs.getString("transaction"));
+        }
+        return new Transaction(rs.getLong("ts"), Transaction.Type.valueOf(type), rs.getLong("amount"),
+                rs.getInt("counterparty"), rs.getLong("balanceAfter"));
+    }
+
+    // Forward-only statement that streams rows instead of buffering the whole table in memory
+    static Statement createStreamingStatement(Connection con) throws SQLException {
+        Statement statement = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(Integer.MIN_VALUE); // MySQL driver: stream row by row
+        return statement;
+    }
+}
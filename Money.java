@@ -0,0 +1,65 @@
+// Money helpers: every amount is held as a long count of paise (1 rupee = 100 paise), never as a double
+final class Money {
+    private Money() {}
+
+    // Parse a rupee amount such as "1500", "1500.5" or "-20.75" into paise
+    public static long parse(String text) {
+        String s = text.trim();
+        if (s.isEmpty()) {
+            throw new NumberFormatException("Amount cannot be empty.");
+        }
+
+        int i = 0;
+        boolean negative = false;
+        if (s.charAt(0) == '-' || s.charAt(0) == '+') {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+
+        long rupees = 0;
+        int digits = 0;
+        while (i < s.length() && Character.isDigit(s.charAt(i))) {
+            rupees = Math.addExact(Math.multiplyExact(rupees, 10), s.charAt(i) - '0');
+            digits++;
+            i++;
+        }
+
+        long paise = 0;
+        int decimals = 0;
+        if (i < s.length() && s.charAt(i) == '.') {
+            i++;
+            while (i < s.length() && Character.isDigit(s.charAt(i))) {
+                if (++decimals > 2) {
+                    throw new NumberFormatException("Amount can have at most 2 decimal places.");
+                }
+                paise = paise * 10 + (s.charAt(i) - '0');
+                i++;
+            }
+            if (decimals == 1) {
+                paise *= 10;
+            }
+        }
+
+        if (i != s.length() || digits + decimals == 0) {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+
+        long total = Math.addExact(Math.multiplyExact(rupees, 100), paise);
+        return negative ? -total : total;
+    }
+
+    // Format paise as rupees with exactly two decimals, e.g. 150050 -> "1500.50"
+    public static String format(long paise) {
+        StringBuilder sb = new StringBuilder();
+        if (paise < 0) {
+            sb.append('-');
+        }
+        long abs = Math.abs(paise);
+        long fraction = abs % 100;
+        sb.append(abs / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction).toString();
+    }
+}
@@ -0,0 +1,673 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+// Write-ahead journal mode: a posting is acknowledged as soon as its frame is fsynced to a local
+// append-only file, and a background flusher copies the frames to the accounts and transactions
+// tables later. The database round trip is off the user's path.
+//
+// Frames are group committed. Callers hand their frame to the sync thread and wait. The thread writes
+// everything queued since its last pass and forces it with a single fsync. The flusher applies
+// synced frames in batches. Each batch is one database transaction that also records the last
+// applied sequence number in journal_checkpoint, so replay after a crash applies every frame exactly once.
+//
+// A frame the database refuses for good (a constraint or data error, say a posting to an account that
+// was deleted meanwhile) would block every frame behind it. After MAX_FLUSH_ATTEMPTS failed tries, or
+// at once for such an error, the batch is applied frame by frame and each refused frame is appended
+// to <journal>.rejected (same frame layout) and skipped, so the operator can reconcile it by hand.
+// Its accounts are then held (fenced): later frames carry absolute balances that include the refused
+// posting, so every later frame touching a held account is set aside the same way instead of applied,
+// and append() turns new postings on them away until a restart reloads them from the tables.
+//
+// Like shard mode, the flusher writes balances without the version check of locked postings
+// (BankStorage.postBalance): this process is taken to be the only writer of journaled accounts.
+//
+// Callers and the two threads meet on a ReentrantLock rather than the object monitor: postings run on
+// session virtual threads (BankServer), and a virtual thread waiting inside synchronized pins its carrier.
+//
+// Frame layout: int payload length, int CRC32 of payload, then payload = long seq, short row count,
+// rows of (int accountNo, long ts, byte type, long amount, int counterparty, long balanceAfter).
+class PostingJournal {
+    private static final int HEADER_BYTES = 8;
+    private static final int ROW_BYTES = 33;
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+
+    // One ledger row of a frame, a transfer journals both of its rows in the same frame
+    static final class Entry {
+        final int accountNo;
+        final Transaction transaction;
+
+        Entry(int accountNo, Transaction transaction) {
+            this.accountNo = accountNo;
+            this.transaction = transaction;
+        }
+    }
+
+    private static final class Frame {
+        final long seq;
+        final Entry[] entries;
+
+        Frame(long seq, Entry[] entries) {
+            this.seq = seq;
+            this.entries = entries;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Path rejectedPath;
+    private final long flushIntervalMs;
+    private final int flushBatchSize;
+    private final Thread syncThread;
+    private final Thread flushThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition framesQueued = lock.newCondition(); // sync thread waits for work
+    private final Condition syncDone = lock.newCondition(); // append() waits for its fsync
+    private final Condition flushDue = lock.newCondition(); // flusher waits for a full batch
+    // Held around every write, force and truncate of the file
+    private final ReentrantLock channelLock = new ReentrantLock();
+
+    // Guarded by lock
+    private long nextSeq;
+    private long syncedSeq;
+    private long flushedSeq;
+    private List<Frame> unsynced = new ArrayList<>();
+    private final ArrayDeque<Frame> unflushed = new ArrayDeque<>();
+    private IOException syncFailure;
+    private volatile boolean running;
+    // Held accounts, see the class comment. Added to by the flusher, checked by append() under lock.
+    private final Set<Integer> fenced = ConcurrentHashMap.newKeySet();
+
+    // Metrics
+    private long framesSynced;
+    private long fsyncs;
+    private long framesFlushed;
+    private long flushBatches;
+    private long flushFailures;
+    private long framesRejected;
+
+    PostingJournal(Path path, long nextSeq, long flushIntervalMs, int flushBatchSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+        this.rejectedPath = rejectedPath(path);
+        this.nextSeq = nextSeq;
+        this.syncedSeq = nextSeq - 1;
+        this.flushedSeq = nextSeq - 1;
+        this.flushIntervalMs = flushIntervalMs;
+        this.flushBatchSize = flushBatchSize;
+        this.syncThread = new Thread(this::syncLoop, "journal-sync");
+        this.flushThread = new Thread(this::flushLoop, "journal-flush");
+        syncThread.setDaemon(true);
+        flushThread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        syncThread.start();
+        flushThread.start();
+    }
+
+    // Stop accepting postings, wait until everything journaled has reached the database
+    public void shutdown() throws InterruptedException {
+        lock.lock();
+        try {
+            running = false;
+            framesQueued.signalAll();
+            flushDue.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        syncThread.join();
+        flushThread.join();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error closing journal: " + e.getMessage());
+        }
+    }
+
+    // Journal one posting (or both sides of a transfer) and return once it is on disk
+    public void append(Entry... entries) throws IOException, InterruptedException {
+        long seq;
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IOException("Journal is shut down.");
+            }
+            if (syncFailure != null) {
+                throw new IOException("Journal is unusable after a write failure: " + syncFailure.getMessage());
+            }
+            for (Entry entry : entries) {
+                if (fenced.contains(entry.accountNo)) {
+                    throw new IOException("Account " + entry.accountNo + " is on hold until a refused posting in " +
+                            rejectedPath + " is reconciled.");
+                }
+            }
+            seq = nextSeq++;
+            unsynced.add(new Frame(seq, entries));
+            framesQueued.signal();
+            while (syncedSeq < seq && syncFailure == null) {
+                syncDone.await();
+            }
+            if (syncedSeq < seq) {
+                throw new IOException("Journal write failed: " + syncFailure.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            List<Frame> batch;
+            lock.lock();
+            try {
+                while (unsynced.isEmpty() && running) {
+                    awaitQuietly(framesQueued, 0);
+                }
+                if (unsynced.isEmpty()) {
+                    return; // shut down and nothing left to write
+                }
+                batch = unsynced;
+                unsynced = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                for (int i = 0; i < batch.size(); i++) {
+                    buffers[i] = encode(batch.get(i));
+                }
+                channelLock.lock();
+                try {
+                    long remaining = 0;
+                    for (ByteBuffer buffer : buffers) {
+                        remaining += buffer.remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers);
+                    }
+                    channel.force(false);
+                } finally {
+                    channelLock.unlock();
+                }
+            } catch (IOException e) {
+                // Nothing past this point is durable, fail the waiting callers so they undo their postings
+                lock.lock();
+                try {
+                    syncFailure = e;
+                    syncDone.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                System.out.println("Journal write failed: " + e.getMessage());
+                return;
+            }
+
+            lock.lock();
+            try {
+                syncedSeq = batch.get(batch.size() - 1).seq;
+                unflushed.addAll(batch);
+                framesSynced += batch.size();
+                fsyncs++;
+                syncDone.signalAll();
+                if (unflushed.size() >= flushBatchSize) {
+                    flushDue.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        int failedAttempts = 0;
+        while (true) {
+            List<Frame> batch = new ArrayList<>();
+            lock.lock();
+            try {
+                if (unflushed.size() < flushBatchSize && running) {
+                    awaitQuietly(flushDue, flushIntervalMs);
+                }
+                if (unflushed.isEmpty()) {
+                    if (!running && !syncThread.isAlive()) {
+                        truncateIfDrained();
+                        return;
+                    }
+                    if (!running) {
+                        awaitQuietly(flushDue, 10); // sync thread is writing its last frames
+                    }
+                    continue;
+                }
+                for (Frame frame : unflushed) {
+                    if (batch.size() == flushBatchSize) {
+                        break;
+                    }
+                    batch.add(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Each list in applied went to the database in one transaction
+            List<List<Frame>> applied = new ArrayList<>();
+            int done;
+            try (Connection con = Bank.pool.borrow()) {
+                SQLException failure = null;
+                if (!touchesAny(batch, fenced)) {
+                    try {
+                        applyToDatabase(con, batch);
+                        applied.add(batch);
+                    } catch (SQLException e) {
+                        failure = e;
+                    }
+                }
+                if (!applied.isEmpty()) {
+                    done = batch.size();
+                } else {
+                    if (failure != null && !isPermanent(failure) && ++failedAttempts < MAX_FLUSH_ATTEMPTS && running) {
+                        throw failure;
+                    }
+                    // Refused for good, failing over and over, or holding frames of a held account:
+                    // frame by frame, setting aside the ones that cannot go in
+                    done = applySingly(con, batch, rejectedPath, fenced, applied);
+                    if (done == 0) {
+                        throw failure != null ? failure : new SQLException("Could not set journal frames aside.");
+                    }
+                    lock.lock();
+                    try {
+                        if (failure != null) {
+                            flushFailures++;
+                        }
+                        framesRejected += done - applied.size();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (SQLException e) {
+                // Frames stay queued (and on disk), try again after a pause
+                lock.lock();
+                try {
+                    flushFailures++;
+                } finally {
+                    lock.unlock();
+                }
+                if (!running) {
+                    System.out.println("Journal flush failed at shutdown, " +
+                            "pending postings will be replayed on the next start: " + e.getMessage());
+                    return;
+                }
+                System.out.println("Journal flush failed, will retry: " + e.getMessage());
+                sleepQuietly(200);
+                continue;
+            }
+
+            failedAttempts = 0;
+            lock.lock();
+            try {
+                for (int i = 0; i < done; i++) {
+                    unflushed.removeFirst();
+                }
+                flushedSeq = batch.get(done - 1).seq;
+                framesFlushed += done;
+                flushBatches += applied.size();
+                truncateIfDrained();
+            } finally {
+                lock.unlock();
+            }
+            // Each transaction bumped every row it touched once, keep the in-memory copies in step. Under
+            // the account's lock, like every other change to its balance and version.
+            for (List<Frame> frames : applied) {
+                for (int accountNo : touchedAccounts(frames)) {
+                    Account account = Bank.accountsByNo.get(accountNo);
+                    if (account == null) {
+                        continue;
+                    }
+                    Bank.accountLocks.lock(accountNo);
+                    try {
+                        account.setVersion(account.getVersion() + 1);
+                    } finally {
+                        Bank.accountLocks.unlock(accountNo);
+                    }
+                }
+            }
+        }
+    }
+
+    // Apply frames one transaction each, in order. A frame the database refuses for good, or one touching
+    // a held account, is appended to the rejected file, its accounts are held and the checkpoint is moved
+    // past it; any other failure stops here so the rest is retried. Adds each applied frame to applied and
+    // returns how many leading frames are done.
+    private static int applySingly(Connection con, List<Frame> frames, Path rejectedPath, Set<Integer> fenced,
+                                   List<List<Frame>> applied) {
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            String reason;
+            if (touchesAny(List.of(frame), fenced)) {
+                reason = "an earlier posting on the account was refused";
+            } else {
+                try {
+                    applyToDatabase(con, List.of(frame));
+                    applied.add(List.of(frame));
+                    continue;
+                } catch (SQLException e) {
+                    if (!isPermanent(e)) {
+                        System.out.println("Journal frame " + frame.seq + " failed, will retry: " + e.getMessage());
+                        return i;
+                    }
+                    reason = "refused by the database: " + e.getMessage();
+                }
+            }
+            for (Entry entry : frame.entries) {
+                fenced.add(entry.accountNo);
+            }
+            try {
+                reject(rejectedPath, frame);
+                writeCheckpoint(con, frame.seq);
+            } catch (IOException | SQLException failure) {
+                System.out.println("Could not set journal frame " + frame.seq + " aside: " + failure.getMessage());
+                return i;
+            }
+            System.out.println("Journal frame " + frame.seq + " for account(s) " + accountList(frame) +
+                    " moved to " + rejectedPath + ", accounts held until reconciled (" + reason + ").");
+        }
+        return frames.size();
+    }
+
+    private static boolean touchesAny(List<Frame> frames, Set<Integer> accountNos) {
+        if (accountNos.isEmpty()) {
+            return false;
+        }
+        for (Frame frame : frames) {
+            for (Entry entry : frame.entries) {
+                if (accountNos.contains(entry.accountNo)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Constraint violations (class 23) and data exceptions (class 22) fail the same way on every retry
+    private static boolean isPermanent(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("23") || state.startsWith("22"));
+    }
+
+    private static Path rejectedPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".rejected");
+    }
+
+    // Appended and forced before the checkpoint skips the frame, so a refused posting is never just lost
+    private static void reject(Path rejectedPath, Frame frame) throws IOException {
+        try (FileChannel file = FileChannel.open(rejectedPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = encode(frame);
+            while (buffer.hasRemaining()) {
+                file.write(buffer);
+            }
+            file.force(false);
+        }
+    }
+
+    private static String accountList(Frame frame) {
+        StringJoiner accounts = new StringJoiner(", ");
+        for (Entry entry : frame.entries) {
+            accounts.add(String.valueOf(entry.accountNo));
+        }
+        return accounts.toString();
+    }
+
+    // Everything written is in the database, start the file over so replay stays short. Caller holds lock.
+    private void truncateIfDrained() {
+        if (flushedSeq != nextSeq - 1 || !unsynced.isEmpty() || syncFailure != null) {
+            return;
+        }
+        channelLock.lock();
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            System.out.println("Could not truncate journal: " + e.getMessage());
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    public String statsReport() {
+        lock.lock();
+        try {
+            double framesPerSync = fsyncs == 0 ? 0 : (double) framesSynced / fsyncs;
+            double framesPerFlush = flushBatches == 0 ? 0 : (double) framesFlushed / flushBatches;
+            return String.format("Journal: %d frames synced in %d fsyncs (%.1f per fsync), " +
+                            "%d flushed in %d batches (%.1f per batch), %d flush failures, %d rejected, %d pending",
+                    framesSynced, fsyncs, framesPerSync, framesFlushed, flushBatches, framesPerFlush,
+                    flushFailures, framesRejected, unflushed.size() + unsynced.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // RECOVERY
+    // Apply every intact frame newer than the checkpoint, then empty the file. Runs before the accounts
+    // are loaded, so the in-memory state is built from the recovered tables. Returns the next seq to use.
+    // The file is only emptied once the committed checkpoint reads back as covering its last frame.
+    static long recover(Path path) throws IOException, SQLException {
+        long checkpoint;
+        try (Connection con = Bank.pool.borrow()) {
+            checkpoint = readCheckpoint(con);
+            if (!Files.exists(path)) {
+                return checkpoint + 1;
+            }
+
+            List<Frame> frames = readFrames(path);
+            List<Frame> pending = new ArrayList<>();
+            for (Frame frame : frames) {
+                if (frame.seq > checkpoint) {
+                    pending.add(frame);
+                }
+            }
+            if (!pending.isEmpty()) {
+                long start = System.nanoTime();
+                int rejected = 0;
+                // Only for the replay: the accounts are loaded from the tables afterwards
+                Set<Integer> fenced = new HashSet<>();
+                for (int i = 0; i < pending.size(); ) {
+                    List<Frame> chunk = pending.subList(i, Math.min(i + 1000, pending.size()));
+                    SQLException failure = null;
+                    if (!touchesAny(chunk, fenced)) {
+                        try {
+                            applyToDatabase(con, chunk);
+                            i += chunk.size();
+                            continue;
+                        } catch (SQLException e) {
+                            if (!isPermanent(e)) {
+                                throw e;
+                            }
+                            failure = e;
+                        }
+                    }
+                    List<List<Frame>> applied = new ArrayList<>();
+                    int done = applySingly(con, chunk, rejectedPath(path), fenced, applied);
+                    if (done == 0) {
+                        throw failure != null ? failure : new SQLException("Could not set journal frames aside.");
+                    }
+                    rejected += done - applied.size();
+                    i += done;
+                }
+                long lastSeq = pending.get(pending.size() - 1).seq;
+                checkpoint = readCheckpoint(con);
+                if (checkpoint < lastSeq) {
+                    throw new SQLException("Journal replay stopped at frame " + checkpoint + " of " + lastSeq + ".");
+                }
+                System.out.printf("Replayed %d journal frames in %.1f ms%s.%n", pending.size() - rejected,
+                        (System.nanoTime() - start) / 1e6, rejected == 0 ? "" : ", " + rejected + " rejected");
+            }
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            file.truncate(0);
+            file.force(true);
+        }
+        return checkpoint + 1;
+    }
+
+    private static long readCheckpoint(Connection con) throws SQLException {
+        try (Statement statement = con.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT lastSeq FROM journal_checkpoint WHERE id = 1")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static void writeCheckpoint(Connection con, long seq) throws SQLException {
+        try (PreparedStatement checkpoint = con.prepareStatement(
+                "INSERT INTO journal_checkpoint (id, lastSeq) VALUES (1, ?) ON DUPLICATE KEY UPDATE lastSeq = ?")) {
+            checkpoint.setLong(1, seq);
+            checkpoint.setLong(2, seq);
+            checkpoint.executeUpdate();
+        }
+    }
+
+    // Reads frames up to the first torn or corrupt one, which can only be the tail of an interrupted write
+    private static List<Frame> readFrames(Path path) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= HEADER_BYTES) {
+            int length = data.getInt();
+            int expectedCrc = data.getInt();
+            if (length < 10 || length > data.remaining()) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            if ((int) crc.getValue() != expectedCrc) {
+                System.out.println("Journal has a damaged frame, ignoring everything after it.");
+                break;
+            }
+            long seq = data.getLong();
+            Entry[] entries = new Entry[data.getShort()];
+            for (int i = 0; i < entries.length; i++) {
+                int accountNo = data.getInt();
+                long timestamp = data.getLong();
+                Transaction.Type type = Transaction.Type.values()[data.get()];
+                long amount = data.getLong();
+                int counterparty = data.getInt();
+                long balanceAfter = data.getLong();
+                entries[i] = new Entry(accountNo, new Transaction(timestamp, type, amount, counterparty, balanceAfter));
+            }
+            frames.add(new Frame(seq, entries));
+        }
+        return frames;
+    }
+
+    private static ByteBuffer encode(Frame frame) {
+        int length = 10 + frame.entries.length * ROW_BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+        buffer.position(HEADER_BYTES);
+        buffer.putLong(frame.seq);
+        buffer.putShort((short) frame.entries.length);
+        for (Entry entry : frame.entries) {
+            Transaction transaction = entry.transaction;
+            buffer.putInt(entry.accountNo);
+            buffer.putLong(transaction.getTimestamp());
+            buffer.put((byte) transaction.getType().ordinal());
+            buffer.putLong(transaction.getAmount());
+            buffer.putInt(transaction.getCounterparty());
+            buffer.putLong(transaction.getBalanceAfter());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, length);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Set<Integer> touchedAccounts(List<Frame> frames) {
+        Set<Integer> accountNos = new HashSet<>();
+        for (Frame frame : frames) {
+            for (Entry entry : frame.entries) {
+                accountNos.add(entry.accountNo);
+            }
+        }
+        return accountNos;
+    }
+
+    // Every row carries the balance after it, so the last row per account is that account's balance.
+    // Written without a version check, see the class comment.
+    private static void applyToDatabase(Connection con, List<Frame> frames) throws SQLException {
+        Map<Integer, Long> balances = new LinkedHashMap<>();
+        for (Frame frame : frames) {
+            for (Entry entry : frame.entries) {
+                balances.put(entry.accountNo, entry.transaction.getBalanceAfter());
+            }
+        }
+
+        con.setAutoCommit(false);
+        try (PreparedStatement update = con.prepareStatement(
+                     "UPDATE accounts SET balance = ?, version = version + 1 WHERE accountNo = ?");
+             PreparedStatement insert = con.prepareStatement(JdbcStorage.INSERT_TRANSACTION_SQL);
+             PreparedStatement checkpoint = con.prepareStatement(
+                     "INSERT INTO journal_checkpoint (id, lastSeq) VALUES (1, ?) ON DUPLICATE KEY UPDATE lastSeq = ?")) {
+            for (Map.Entry<Integer, Long> balance : balances.entrySet()) {
+                update.setLong(1, balance.getValue());
+                update.setInt(2, balance.getKey());
+                update.addBatch();
+            }
+            update.executeBatch();
+
+            for (Frame frame : frames) {
+                for (Entry entry : frame.entries) {
+                    JdbcStorage.bindTransaction(insert, entry.accountNo, entry.transaction);
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+
+            long lastSeq = frames.get(frames.size() - 1).seq;
+            checkpoint.setLong(1, lastSeq);
+            checkpoint.setLong(2, lastSeq);
+            checkpoint.executeUpdate();
+            con.commit();
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException ignored) {
+                // the pool discards connections it cannot reset
+            }
+            throw e;
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    // Caller holds lock; 0 waits until signalled
+    private static void awaitQuietly(Condition condition, long millis) {
+        try {
+            if (millis == 0) {
+                condition.await();
+            } else {
+                condition.await(millis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
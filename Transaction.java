@@ -0,0 +1,88 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+// One posting on an account, stored as typed values and only turned into text when it is displayed
+final class Transaction {
+    // Journal frames store the ordinal, new types go at the end
+    enum Type { DEPOSIT, WITHDRAW, TRANSFER_OUT, TRANSFER_IN, REVERSAL, LEGACY, DISBURSEMENT, DISBURSE_REFUND }
+
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    final long timestamp;    // epoch milliseconds
+    final Type type;
+    final long amount;       // paise
+    final int counterparty;  // other account of a transfer, 0 otherwise
+    final long balanceAfter; // paise
+    final String legacyText; // rows written before typed columns existed
+
+    Transaction(long timestamp, Type type, long amount, int counterparty, long balanceAfter) {
+        this(timestamp, type, amount, counterparty, balanceAfter, null);
+    }
+
+    private Transaction(long timestamp, Type type, long amount, int counterparty, long balanceAfter, String legacyText) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.amount = amount;
+        this.counterparty = counterparty;
+        this.balanceAfter = balanceAfter;
+        this.legacyText = legacyText;
+    }
+
+    static Transaction legacy(String text) {
+        return new Transaction(0, Type.LEGACY, 0, 0, 0, text);
+    }
+
+    public long getTimestamp() { return timestamp; }
+    public Type getType() { return type; }
+    public long getAmount() { return amount; }
+    public int getCounterparty() { return counterparty; }
+    public long getBalanceAfter() { return balanceAfter; }
+
+    @Override
+    public String toString() {
+        if (type == Type.LEGACY) {
+            return legacyText;
+        }
+        StringBuilder sb = new StringBuilder(80);
+        sb.append(FORMAT.format(Instant.ofEpochMilli(timestamp))).append(" - ");
+        switch (type) {
+            case DEPOSIT:
+                sb.append("Deposit");
+                break;
+            case WITHDRAW:
+                sb.append("Withdraw");
+                break;
+            case TRANSFER_OUT:
+                sb.append("Transfer to ").append(describeAccount(counterparty));
+                break;
+            case TRANSFER_IN:
+                sb.append("Transfer from ").append(describeAccount(counterparty));
+                break;
+            case REVERSAL:
+                sb.append("Transfer reversed, not credited to ").append(describeAccount(counterparty));
+                break;
+            case DISBURSEMENT:
+                sb.append("Disbursement reserved");
+                break;
+            case DISBURSE_REFUND:
+                sb.append("Disbursement refund, not paid out");
+                break;
+            default:
+                break;
+        }
+        sb.append(": ₹").append(Money.format(amount));
+        sb.append(", New Balance: ₹").append(Money.format(balanceAfter));
+        return sb.toString();
+    }
+
+    // Owner name and account number, or just the number if the account is gone
+    private static String describeAccount(int accountNo) {
+        Account account = Bank.accountsByNo.get(accountNo);
+        if (account == null) {
+            return "(" + accountNo + ")";
+        }
+        User owner = account.getOwner();
+        return owner.getFirstName() + " " + owner.getLastName() + " (" + accountNo + ")";
+    }
+}
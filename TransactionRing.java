@@ -0,0 +1,79 @@
+import java.util.*;
+// Fixed-capacity ring buffer holding the most recent transactions, oldest first when iterated.
+// Not thread-safe: Account guards its ring and hands readers a copy (toList).
+class TransactionRing implements Iterable<Transaction> {
+    private final int capacity;
+    private Transaction[] items; // allocated on first add, untouched accounts carry no array
+    private int head;            // index of the oldest entry
+    private int size;
+
+    TransactionRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    // Append in O(1), overwriting the oldest entry once full
+    public void add(Transaction transaction) {
+        if (items == null) {
+            items = new Transaction[capacity];
+        }
+        if (size < capacity) {
+            items[(head + size) % capacity] = transaction;
+            size++;
+        } else {
+            items[head] = transaction;
+            head = (head + 1) % capacity;
+        }
+    }
+
+    // i-th entry counting from the oldest
+    public Transaction get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of range for size " + size);
+        }
+        return items[(head + i) % capacity];
+    }
+
+    // Copy, oldest first
+    public List<Transaction> toList() {
+        List<Transaction> copy = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            copy.add(items[(head + i) % capacity]);
+        }
+        return copy;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        if (items != null) {
+            Arrays.fill(items, null);
+        }
+        head = 0;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Transaction next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+}